@@ -0,0 +1,58 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Times staging many files with one add of their directory, against one
+ * add per file. Invoke in an empty scratch directory as
+ * java gitlet.AddBenchmark [files]
+ * <p>
+ * Creates 10000 files (by default) in 100 directories and reports the
+ * time and throughput of adding them all, of adding them again unchanged,
+ * of adding them after a tenth have changed, and of adding the changed
+ * tenth one file per call, loading and saving the index each time. The
+ * repository is left in place.
+ */
+public class AddBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        Repository.init();
+        writeFiles(n, 1, 0);
+
+        System.out.printf("%8s %-22s %12s %10s\n", "files", "add", "time (ms)", "files/s");
+        System.out.printf("------------------------------------------------------\n");
+        time(n, "all, new", () -> Repository.add("."));
+        time(n, "all, unchanged", () -> Repository.add("."));
+        writeFiles(n, 10, 1);
+        time(n, "all, tenth changed", () -> Repository.add("."));
+        writeFiles(n, 10, 2);
+        time(n / 10, "tenth, one per call", () -> {
+            for (int i = 0; i < n; i += 10) {
+                Repository.add(fileName(i));
+            }
+        });
+    }
+
+    private static void time(int files, String what, Runnable add) {
+        long start = System.nanoTime();
+        add.run();
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%8d %-22s %12.1f %10.0f\n", files, what, ms, files / ms * 1000);
+    }
+
+    /* Write every EVERY-th of N files as version VERSION */
+    private static void writeFiles(int n, int every, int version) {
+        for (int i = 0; i < n; i += every) {
+            String name = fileName(i);
+            join(Repository.CWD, name).getParentFile().mkdirs();
+            writeContents(join(Repository.CWD, name), "version " + version + " of " + name + "\n");
+        }
+    }
+
+    private static String fileName(int i) {
+        return "dir" + (i % 100) + "/file" + i + ".txt";
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Runs add and gc in two processes at the same time and checks that the
+ * index never ends up naming a deleted object. Invoke in an empty scratch
+ * directory as
+ * java gitlet.AddGcCheck [rounds]
+ * <p>
+ * Each round stages some content and then other content, which leaves the
+ * first blob unreachable, and every other round packs it. All objects are
+ * then made an hour old, past the grace period given to gc. add stages the
+ * first content again, which finds its blob already stored, while gc
+ * deletes what it finds unreachable and expired. fsck must then find
+ * nothing missing. Exits with status 1 on the first round that fails.
+ */
+public class AddGcCheck {
+    private static final int ROUNDS = 20;
+    /* Grace period of gc, in seconds, well under the age of the objects */
+    private static final int GRACE = 60;
+    private static final long AGE = 60 * 60 * 1000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : ROUNDS;
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        File file = join(Repository.CWD, "a.txt");
+        run("init");
+        for (int r = 0; r < rounds; r++) {
+            String content = "round " + r + "\n";
+            writeContents(file, content);
+            run("add", "a.txt");
+            writeContents(file, "other " + r + "\n");
+            run("add", "a.txt");
+            if (r % 2 == 1) {
+                run("repack");
+            }
+            age(Repository.OBJECTS_FOLDER);
+            age(ObjectStore.PACK_FOLDER);
+
+            writeContents(file, content);
+            ProcessBuilder add = java(List.of(), "add", "a.txt")
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            ProcessBuilder gc = java(List.of("-D" + Repository.GC_GRACE_PROPERTY + "=" + GRACE),
+                    "gc").redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            // Alternate which process gets a head start
+            Process first = (r % 2 == 0 ? add : gc).start();
+            Process second = (r % 2 == 0 ? gc : add).start();
+            check(first);
+            check(second);
+
+            String fsck = run("fsck");
+            if (!fsck.contains(" 0 missing")) {
+                System.out.printf("round %d failed:%n%s", r, fsck);
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d rounds of add and gc left no object missing.%n", rounds);
+    }
+
+    /* Make the loose objects or packs in a folder an hour old */
+    private static void age(File folder) {
+        File[] files = folder.listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            f.setLastModified(System.currentTimeMillis() - AGE);
+        }
+    }
+
+    /* Run a gitlet command in a new JVM, returning its output */
+    private static String run(String... args) throws IOException, InterruptedException {
+        Process p = java(List.of(), args).start();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        check(p);
+        return output;
+    }
+
+    private static void check(Process p) throws InterruptedException {
+        int status = p.waitFor();
+        if (status != 0) {
+            throw new IllegalStateException("gitlet exited with " + status);
+        }
+    }
+
+    private static ProcessBuilder java(List<String> options, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        command.addAll(options);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).redirectErrorStream(true);
+    }
+}
@@ -2,7 +2,13 @@ package gitlet;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
 import static gitlet.Utils.*;
 
@@ -10,38 +16,191 @@ public class Blob extends GitletObject<Blob.Data> {
 
     // Constructors
     private Blob(String sha1) {
-        super(sha1);
+        super(sha1, Codec.TAG_BLOB, Blob.Data::read);
     }
 
     private Blob() {
-        super();
+        super(Codec.TAG_BLOB);
         data_ = new Blob.Data();
     }
 
     // Static
-    public static class Data implements Serializable, ToBytesConvertible {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    /* Largest part of an object file mapped at once to hash it */
+    private static final long MAP_WINDOW = 64L << 20;
+
+    public static class Data implements ToBytesConvertible {
+        private static final int VERSION = 2;
+
         public String filename_;
         public byte[] content_;
 
         @Override
-        public byte[] toByteArray() {
-            byte[] filenameBytes = filename_.getBytes(StandardCharsets.UTF_8);
-            int len = filenameBytes.length + content_.length;
-            byte[] result = new byte[len];
-            System.arraycopy(filenameBytes, 0, result, 0, filenameBytes.length);
-            System.arraycopy(content_, 0, result, filenameBytes.length, content_.length);
-            return result;
+        public void write(DataOutput out) throws IOException {
+            writeHeader(out, filename_, content_.length);
+            out.write(content_);
+        }
+
+        public static Data read(DataInput in) throws IOException {
+            Codec.readHeader(in, Codec.TAG_BLOB, VERSION);
+            Data d = new Data();
+            d.filename_ = Codec.readString(in);
+            long len = in.readLong();
+            if (len < 0 || len > Integer.MAX_VALUE) {
+                throw new IOException("blob too large to load: " + len + " bytes");
+            }
+            d.content_ = new byte[(int) len];
+            in.readFully(d.content_);
+            return d;
+        }
+
+        /* everything in the encoding that precedes the content */
+        private static void writeHeader(DataOutput out, String filename,
+                                        long length) throws IOException {
+            Codec.writeHeader(out, Codec.TAG_BLOB, VERSION);
+            Codec.writeString(out, filename);
+            out.writeLong(length);
         }
     }
 
     /**
-     * Create new blob from file in current working directory
+     * What the header of a stored blob tells without reading its content
+     */
+    public static class Info {
+        Info(String filename, long length) {
+            filename_ = filename;
+            length_ = length;
+        }
+
+        public final String filename_;
+        public final long length_;
+    }
+
+    /**
+     * Read only the header of a stored object
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return filename and content length, or null if the object is not a blob
+     */
+    public static Info infoFromObjects(String sha1) {
+        try (DataInputStream in = new DataInputStream(ObjectStore.open(sha1))) {
+            // The object header starts with the type, then the length
+            if (in.read() != Character.toLowerCase(Codec.TAG_BLOB)) {
+                return null;
+            }
+            in.readLong();
+            Codec.readHeader(in, Codec.TAG_BLOB, Data.VERSION);
+            String filename = Codec.readString(in);
+            return new Info(filename, in.readLong());
+        } catch (IOException e) {
+            throw new GitletException("corrupt object " + sha1);
+        }
+    }
+
+    /**
+     * Store file in current working directory as a blob, hashing it while
+     * it is copied into the object store through a fixed-size buffer
      *
      * @param filename name of file
-     * @return new Blob
+     * @return SHA-1 hash of the stored blob
      */
-    public static Blob fromFileName(String filename) {
-        Blob b = new Blob();
+    public static String saveFromFileName(String filename) {
+        ObjectStore.ObjectWriter out = new ObjectStore.ObjectWriter();
+        try {
+            String sha1 = streamFile(filename, out);
+            out.finish(sha1);
+            return sha1;
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * Compute the hash a file in current working directory would have as a
+     * blob, without reading it into memory
+     *
+     * @param filename name of file
+     * @return SHA-1 hash
+     */
+    public static String hashFileName(String filename) {
+        return streamFile(filename, null);
+    }
+
+    /* Copy the content of an uncompressed blob between channels, hashing
+     * its encoding through a memory map if MD is not null */
+    private static void transferRaw(ObjectStore.StoredRegion r, FileChannel out,
+                                    MessageDigest md) throws IOException {
+        // The object header, then tag, version and filename length come first
+        int prefix = ObjectStore.OBJECT_HEADER_LENGTH;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(r.read(1, prefix + 6)));
+        ObjectStore.readObjectHeader(in, Codec.TAG_BLOB);
+        Codec.readHeader(in, Codec.TAG_BLOB, Data.VERSION);
+        int headerLength = prefix + 6 + in.readInt() + 8;
+        byte[] header = r.read(1, headerLength);
+        in = new DataInputStream(new ByteArrayInputStream(header));
+        long objectLength = ObjectStore.readObjectHeader(in, Codec.TAG_BLOB);
+        Codec.readHeader(in, Codec.TAG_BLOB, Data.VERSION);
+        Codec.readString(in);
+        long length = in.readLong();
+        if (prefix + objectLength != headerLength + length) {
+            throw new IOException("blob length does not match its header");
+        }
+        long contentStart = r.start_ + 1 + headerLength;
+        if (1 + headerLength + length != r.length_) {
+            throw new IOException("blob length does not match its object");
+        }
+
+        if (md != null) {
+            md.update(header);
+            for (long off = 0; off < length; off += MAP_WINDOW) {
+                md.update(r.channel_.map(FileChannel.MapMode.READ_ONLY, contentStart + off,
+                        Math.min(MAP_WINDOW, length - off)));
+            }
+        }
+        for (long done = 0; done < length; ) {
+            long n = r.channel_.transferTo(contentStart + done, length - done, out);
+            if (n <= 0) {
+                throw new EOFException("object truncated");
+            }
+            done += n;
+        }
+    }
+
+    /* Copy the content of a compressed or delta blob through a buffer */
+    private static void copyInflated(String sha1, FileChannel out,
+                                     MessageDigest md) throws IOException {
+        InputStream stream = ObjectStore.open(sha1);
+        if (md != null) {
+            stream = new DigestInputStream(stream, md);
+        }
+        try (DataInputStream in = new DataInputStream(stream)) {
+            ObjectStore.readObjectHeader(in, Codec.TAG_BLOB);
+            Codec.readHeader(in, Codec.TAG_BLOB, Data.VERSION);
+            Codec.readString(in);
+            long length = in.readLong();
+            byte[] buf = new byte[STREAM_BUFFER_SIZE];
+            while (length > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+                if (n < 0) {
+                    throw new EOFException("object truncated");
+                }
+                ByteBuffer b = ByteBuffer.wrap(buf, 0, n);
+                while (b.hasRemaining()) {
+                    out.write(b);
+                }
+                length -= n;
+            }
+            if (in.read() != -1) {
+                throw new IOException("trailing data");
+            }
+        }
+    }
+
+    /**
+     * Hash the blob encoding of a file, copying the encoding to OUT unless
+     * it is null
+     */
+    private static String streamFile(String filename, OutputStream out) {
         File f = join(Repository.CWD, filename);
         if (!f.exists()) {
             throw new GitletException("file doesn't exist");
@@ -49,9 +208,50 @@ public class Blob extends GitletObject<Blob.Data> {
         if (f.isDirectory()) {
             throw new GitletException("directories not supported");
         }
-        // Save file data
+        MessageDigest md = sha1Digest();
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            Data.writeHeader(new DataOutputStream(header), filename, size);
+            byte[] typed = ObjectStore.objectHeader(Codec.TAG_BLOB, header.size() + size);
+            md.update(typed);
+            md.update(header.toByteArray());
+            if (out != null) {
+                out.write(typed);
+                header.writeTo(out);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            long total = 0;
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                total += buf.remaining();
+                md.update(buf.array(), 0, buf.limit());
+                if (out != null) {
+                    out.write(buf.array(), 0, buf.limit());
+                }
+                buf.clear();
+            }
+            if (total != size) {
+                throw new GitletException(filename + " changed while being read");
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to read " + filename);
+        }
+        return bytesToHex(md.digest(), 0, HASH_LENGTH);
+    }
+
+    /**
+     * Create a blob, not yet saved
+     *
+     * @param filename name of file
+     * @param content  content of file
+     * @return Blob
+     */
+    public static Blob fromContent(String filename, byte[] content) {
+        Blob b = new Blob();
         b.data_.filename_ = filename;
-        b.data_.content_ = readContents(f);
+        b.data_.content_ = content;
         return b;
     }
 
@@ -85,20 +285,50 @@ public class Blob extends GitletObject<Blob.Data> {
      * @return Blob
      */
     public static Blob fromObjects(String sha1) {
-        return new Blob(sha1);
+        return ObjectCache.get(sha1, Blob.class, Blob::new);
     }
 
-    // Public methods
-
     /**
-     * Restore blob to file in current working directory
-     * regardless of existing files
+     * Write the content of a stored blob to a file with constant memory.
+     * Blobs stored uncompressed are copied straight from the object file
+     * or pack with FileChannel.transferTo; others are inflated through a
+     * fixed-size buffer. The content goes to a temporary file beside the
+     * target, which replaces the target by a rename only once the hash
+     * checks out, so a corrupt blob leaves the target as it was.
+     *
+     * @param sha1   SHA-1 hash hex-string of blob
+     * @param target file, created or overwritten
      */
-    public void restore() {
-        File f = join(Repository.CWD, data_.filename_);
-        writeContents(f, (Object) data_.content_);
+    public static void writeFromObjects(String sha1, File target) {
+        MessageDigest md = VerifyPolicy.shouldVerify(sha1) ? sha1Digest() : null;
+        File tmp = new File(target.getParentFile(), "." + target.getName() + ".gitlet-new");
+        try {
+            try (ObjectStore.StoredRegion r = ObjectStore.openRegion(sha1);
+                 FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (r.flag() == ObjectStore.STORED_RAW) {
+                    transferRaw(r, out, md);
+                } else {
+                    copyInflated(sha1, out, md);
+                }
+            }
+            if (md != null) {
+                if (!bytesToHex(md.digest(), 0, HASH_LENGTH).equals(sha1)) {
+                    throw new GitletException("object SHA-1 mismatch");
+                }
+                VerifyPolicy.markVerified(sha1);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GitletException("failed to restore blob " + sha1 + ": " + e.getMessage());
+        } finally {
+            tmp.delete();
+        }
     }
 
+    // Public methods
+
     public byte[] getContent() {
         return data_.content_;
     }
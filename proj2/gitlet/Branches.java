@@ -1,17 +1,20 @@
 package gitlet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
 import java.util.Set;
 import java.util.TreeMap;
 
 import static gitlet.Utils.*;
 
-public class Branches {
+public class Branches implements ToBytesConvertible {
     // Static
     public static final File BRANCHES = join(Repository.GITLET_DIR, "branches");
+    private static final int VERSION = 1;
 
-    public static class BranchInfo implements Serializable {
+    public static class BranchInfo {
         String head_;
 
         BranchInfo(String head) {
@@ -20,12 +23,10 @@ public class Branches {
     }
 
     public static Branches fromFilesystem() {
-        if (!BRANCHES.exists()) {
+        if (!Transaction.exists(BRANCHES)) {
             throw new GitletException("branches file missing");
         }
-        Branches b = new Branches();
-        b.branchMap_ = readObject(BRANCHES);
-        return b;
+        return Codec.decode(Transaction.read(BRANCHES), Branches::read);
     }
 
     public static Branches createEmpty() {
@@ -36,7 +37,20 @@ public class Branches {
 
     // Public methods
     public void save() {
-        writeObject(BRANCHES, branchMap_);
+        Transaction.write(BRANCHES, toByteArray());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Codec.writeHeader(out, Codec.TAG_BRANCHES, VERSION);
+        Codec.writeMap(out, branchMap_, (o, br) -> Codec.writeHash(o, br.head_));
+    }
+
+    public static Branches read(DataInput in) throws IOException {
+        Codec.readHeader(in, Codec.TAG_BRANCHES, VERSION);
+        Branches b = new Branches();
+        b.branchMap_ = Codec.readMap(in, i -> new BranchInfo(Codec.readHash(i)));
+        return b;
     }
 
     public boolean createBranch(String name, String head) {
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Training run for a class data sharing archive of gitlet: runs every
+ * command once in this process, so that the classes they load are the
+ * ones archived. Invoke in an empty scratch directory as
+ * java -XX:ArchiveClassesAtExit=gitlet.jsa -cp gitlet.jar gitlet.CdsTraining
+ * and start gitlet with -XX:SharedArchiveFile=gitlet.jsa and the same
+ * class path. make cds does both; see StartupBenchmark for the effect.
+ */
+public class CdsTraining {
+    private static final String[][] COMMANDS = {
+        {"init"},
+        {"add", "a.txt", "b.txt"},
+        {"commit", "first"},
+        {"branch", "other"},
+        {"checkout", "other"},
+        {"rm", "b.txt"},
+        {"add", "*.txt"},
+        {"commit", "on other"},
+        {"checkout", "master"},
+        {"status"},
+        {"diff"},
+        {"diff", "--cached"},
+        {"commit", "second"},
+        {"merge", "other"},
+        {"log"},
+        {"global-log"},
+        {"find", "first"},
+        {"checkout", "--", "a.txt"},
+        {"reset", "master"},
+        {"rm-branch", "other"},
+        {"repack"},
+        {"gc"},
+        {"fsck"},
+    };
+
+    public static void main(String[] args) {
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (String[] command : COMMANDS) {
+                if (command[0].equals("init")) {
+                    writeContents(join(Repository.CWD, "a.txt"), "a\nb\nc\n");
+                    writeContents(join(Repository.CWD, "b.txt"), "b\n");
+                } else if (command[0].equals("status")) {
+                    writeContents(join(Repository.CWD, "a.txt"), "a\nb\nc\nd\n");
+                    Main.execute(new String[]{"add", "a.txt"});
+                    writeContents(join(Repository.CWD, "a.txt"), "a\nB\nc\nd\n");
+                }
+                Main.execute(command);
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+}
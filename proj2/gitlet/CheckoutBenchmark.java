@@ -0,0 +1,72 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Times branch switches between commits that differ in a growing number
+ * of files. Invoke in an empty scratch directory as
+ * java gitlet.CheckoutBenchmark [files]
+ * <p>
+ * Creates a repository with one commit of 10000 files (by default), then
+ * for each diff size a branch that changes that many of them, and reports
+ * the mean time to check the branch out and to switch back. The repository
+ * is left in place.
+ */
+public class CheckoutBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        Repository.init();
+        Index index = Index.fromFilesystem();
+        for (int i = 0; i < n; i++) {
+            String name = fileName(i);
+            join(Repository.CWD, name).getParentFile().mkdirs();
+            writeContents(join(Repository.CWD, name), "version 0 of " + name + "\n");
+            index.putFile(name, Blob.saveFromFileName(name));
+        }
+        index.save();
+        Repository.commit("base");
+
+        System.out.printf("%8s %10s %14s %14s\n", "files", "changed", "checkout (ms)",
+                "back (ms)");
+        System.out.printf("------------------------------------------------\n");
+        for (int k = 1; k <= n; k *= 10) {
+            String branch = "changed-" + k;
+            Repository.branch(branch);
+            Repository.checkoutBranch(branch);
+            index = Index.fromFilesystem();
+            for (int i = 0; i < k; i++) {
+                String name = fileName(i);
+                writeContents(join(Repository.CWD, name), "version " + k + " of " + name + "\n");
+                index.putFile(name, Blob.saveFromFileName(name));
+            }
+            index.save();
+            Repository.commit(branch);
+            Repository.checkoutBranch(Repository.DEFAULT_BRANCH);
+
+            double there = 0;
+            double back = 0;
+            // One extra round warms up the JIT and is not counted
+            for (int r = 0; r <= ROUNDS; r++) {
+                long start = System.nanoTime();
+                Repository.checkoutBranch(branch);
+                long mid = System.nanoTime();
+                Repository.checkoutBranch(Repository.DEFAULT_BRANCH);
+                long end = System.nanoTime();
+                if (r > 0) {
+                    there += (mid - start) / 1e6;
+                    back += (end - mid) / 1e6;
+                }
+            }
+            System.out.printf("%8d %10d %14.1f %14.1f\n", n, k, there / ROUNDS, back / ROUNDS);
+        }
+    }
+
+    private static String fileName(int i) {
+        return "dir" + (i % 100) + "/file" + i + ".txt";
+    }
+}
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of the gitlet daemon. Invoke as
+ * java gitlet.Client ARGS
+ * with the same ARGS as gitlet.Main, in the directory the daemon serves.
+ * The command runs in the daemon and its output is copied to System.out.
+ * Without a daemon, the command runs in this process instead.
+ * <p>
+ * The client loads as few classes as it can: it uses no other gitlet class
+ * unless it falls back to running the command itself.
+ */
+public class Client {
+    // Static
+    /* Daemon.SOCKET, without loading Daemon */
+    private static final Path SOCKET = Paths.get(".gitlet", "daemon.sock");
+
+    public static void main(String[] args) {
+        if (!isRunning()) {
+            Main.main(args);
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        int status = forward(args, out);
+        try {
+            out.flush();
+        } catch (IOException ignored) {
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Run a command in the daemon
+     *
+     * @param args command and operands
+     * @param out  stream to copy the output of the command to
+     * @return exit status of the command
+     */
+    public static int forward(String[] args, OutputStream out) {
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(SOCKET));
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(ch)));
+            request.writeInt(args.length);
+            for (String a : args) {
+                request.writeUTF(a);
+            }
+            request.flush();
+
+            DataInputStream reply = new DataInputStream(Channels.newInputStream(ch));
+            byte[] buf = new byte[0];
+            for (int n = reply.readInt(); n >= 0; n = reply.readInt()) {
+                if (buf.length < n) {
+                    buf = new byte[n];
+                }
+                reply.readFully(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+            return reply.readInt();
+        } catch (IOException e) {
+            throw new GitletException("failed to reach the gitlet daemon: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether a daemon is serving the repository in the current
+     * directory
+     */
+    public static boolean isRunning() {
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(SOCKET));
+            // Closed without a request, which the daemon ignores
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Helpers for the versioned binary encoding of gitlet's persistent data.
+ * <p>
+ * Every encoding starts with a one-byte type tag and a one-byte format
+ * version. Strings are stored as a length followed by UTF-8 bytes and
+ * SHA-1 hashes as their 20 raw bytes.
+ */
+public class Codec {
+    // Static
+    public static final byte TAG_BLOB = 'B';
+    public static final byte TAG_COMMIT = 'C';
+    public static final byte TAG_INDEX = 'I';
+    public static final byte TAG_HEAD = 'H';
+    public static final byte TAG_BRANCHES = 'R';
+    public static final byte TAG_TREE = 'T';
+
+    /**
+     * Reads one type from its binary encoding
+     */
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * Writes one value in its binary encoding
+     */
+    @FunctionalInterface
+    public interface Encoder<T> {
+        void write(DataOutput out, T value) throws IOException;
+    }
+
+    /**
+     * Decode bytes produced by ToBytesConvertible.toByteArray()
+     *
+     * @param bytes   encoded bytes
+     * @param decoder decoder of the expected type
+     * @return decoded object
+     */
+    public static <T> T decode(byte[] bytes, Decoder<T> decoder) {
+        try {
+            return decoder.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new GitletException("corrupt data: " + e.getMessage());
+        }
+    }
+
+    public static void writeHeader(DataOutput out, byte tag, int version) throws IOException {
+        out.writeByte(tag);
+        out.writeByte(version);
+    }
+
+    /**
+     * Read and check a header written by writeHeader
+     *
+     * @param tag     expected type tag
+     * @param version expected format version
+     */
+    public static void readHeader(DataInput in, byte tag, int version) throws IOException {
+        byte actual = in.readByte();
+        if (actual != tag) {
+            throw new GitletException("expected type '" + (char) tag
+                    + "', found '" + (char) actual + "'");
+        }
+        int actualVersion = in.readUnsignedByte();
+        if (actualVersion != version) {
+            throw new GitletException("unsupported format version " + actualVersion);
+        }
+    }
+
+    public static void writeString(DataOutput out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public static void writeBytes(DataOutput out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("negative length");
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return b;
+    }
+
+    public static void writeHash(DataOutput out, String sha1) throws IOException {
+        out.write(hexToBytes(sha1));
+    }
+
+    public static String readHash(DataInput in) throws IOException {
+        byte[] b = new byte[HASH_LENGTH];
+        in.readFully(b);
+        return bytesToHex(b, 0, HASH_LENGTH);
+    }
+
+    /**
+     * Write a hash that may be null, preceded by a presence flag
+     */
+    public static void writeOptionalHash(DataOutput out, String sha1) throws IOException {
+        out.writeBoolean(sha1 != null);
+        if (sha1 != null) {
+            writeHash(out, sha1);
+        }
+    }
+
+    public static String readOptionalHash(DataInput in) throws IOException {
+        return in.readBoolean() ? readHash(in) : null;
+    }
+
+    /**
+     * Write a map with string keys as its size followed by its entries,
+     * in ascending key order
+     */
+    public static <V> void writeMap(DataOutput out, SortedMap<String, V> map,
+                                    Encoder<V> valueEncoder) throws IOException {
+        out.writeInt(map.size());
+        for (var e : map.entrySet()) {
+            writeString(out, e.getKey());
+            valueEncoder.write(out, e.getValue());
+        }
+    }
+
+    /**
+     * Read a map written by writeMap, checking that its keys ascend
+     */
+    public static <V> TreeMap<String, V> readMap(DataInput in,
+                                                 Decoder<V> valueDecoder) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            throw new IOException("negative length");
+        }
+        TreeMap<String, V> map = new TreeMap<>();
+        String prev = null;
+        for (int i = 0; i < n; i++) {
+            String key = readString(in);
+            if (prev != null && prev.compareTo(key) >= 0) {
+                throw new IOException("map entries out of order");
+            }
+            map.put(key, valueDecoder.read(in));
+            prev = key;
+        }
+        return map;
+    }
+}
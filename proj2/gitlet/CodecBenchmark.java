@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compares the binary codec with Java serialization (Utils.serialize) on
+ * trees and indexes of growing size. Invoke as
+ * java gitlet.CodecBenchmark
+ * <p>
+ * Reports encoded size and mean decode time per object for both formats.
+ */
+public class CodecBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MIN_DECODES = 200000;
+
+    public static void main(String[] args) {
+        System.out.printf("%8s %6s %12s %12s %14s %14s\n", "type", "N", "serial (B)",
+                "codec (B)", "serial (us)", "codec (us)");
+        System.out.printf("--------------------------------------------------------------------\n");
+        for (int n = 10; n <= 10000; n *= 10) {
+            TreeMap<String, String> files = randomFiles(n);
+
+            Tree.Data tree = new Tree.Data();
+            for (var e : files.entrySet()) {
+                tree.entries_.put(e.getKey(), Tree.Entry.blob(e.getValue()));
+            }
+            report("tree", n, serialize(files), tree.toByteArray(), Tree.Data::read);
+
+            Index index = Index.createEmpty();
+            for (var e : files.entrySet()) {
+                index.putFile(e.getKey(), e.getValue());
+            }
+            report("index", n, serialize(files), index.toByteArray(), Index::read);
+        }
+    }
+
+    private static TreeMap<String, String> randomFiles(int n) {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            files.put("file" + i + ".txt", sha1("content " + i));
+        }
+        return files;
+    }
+
+    private static void report(String type, int n, byte[] serial, byte[] codec,
+                               Codec.Decoder<?> decoder) {
+        int rounds = Math.max(1, MIN_DECODES / n);
+        double serialTime = 0;
+        double codecTime = 0;
+        for (int w = 0; w <= WARMUP_ROUNDS; w++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                deserialize(serial);
+            }
+            serialTime = (System.nanoTime() - start) / 1e3 / rounds;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                Codec.decode(codec, decoder);
+            }
+            codecTime = (System.nanoTime() - start) / 1e3 / rounds;
+        }
+        System.out.printf("%8s %6d %12d %12d %14.2f %14.2f\n", type, n, serial.length,
+                codec.length, serialTime, codecTime);
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,16 +1,15 @@
 package gitlet;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.Serializable;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.io.ByteArrayOutputStream;
 
 /**
  * Represents a gitlet commit object.
@@ -26,62 +25,53 @@ public class Commit extends GitletObject<Commit.Data> {
      * @param sha1 SHA-1 hash
      */
     private Commit(String sha1) {
-        super(sha1);
+        super(sha1, Codec.TAG_COMMIT, Commit.Data::read);
     }
 
     /**
      * Create new Commit
      */
     private Commit() {
-        super();
+        super(Codec.TAG_COMMIT);
         data_ = new Commit.Data();
         data_.timestamp_ = Instant.now();
     }
 
     // Public methods
     public int numFiles() {
-        return data_.files_.size();
+        return files().size();
     }
 
     public Set<Map.Entry<String, String>> entrySet() {
-        return data_.files_.entrySet();
+        return files().entrySet();
     }
 
     public Set<String> filenameSet() {
-        return data_.files_.keySet();
+        return files().keySet();
     }
 
     public boolean hasFile(String filename) {
-        return data_.files_.containsKey(filename);
+        return files().containsKey(filename);
     }
 
     public String getFile(String filename) {
-        return data_.files_.get(filename);
+        return files().get(filename);
+    }
+
+    /**
+     * @return SHA-1 hash of the root tree
+     */
+    public String getTree() {
+        return data_.tree_;
     }
 
     public String getDateString() {
-        DateTimeFormatter f =
-                DateTimeFormatter.ofPattern(LOG_DATE_PATTERN).withZone(ZoneId.systemDefault());
-        return f.format(data_.timestamp_);
+        return dateString(data_.timestamp_);
     }
 
     public String toLogEntry() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("===\n");
-        sb.append("commit ");
-        sb.append(getSHA1Hash());
-        if (data_.altParent_ != null) {
-            sb.append("\nMerge: ");
-            sb.append(data_.parent_, 0, 7);
-            sb.append(" ");
-            sb.append(data_.altParent_, 0, 7);
-        }
-        sb.append("\nDate: ");
-        sb.append(getDateString());
-        sb.append("\n");
-        sb.append(data_.msg_);
-        sb.append("\n\n");
-        return sb.toString();
+        return logEntry(getSHA1Hash(), data_.parent_, data_.altParent_, data_.timestamp_,
+                data_.msg_);
     }
 
     public String getParent() {
@@ -96,60 +86,100 @@ public class Commit extends GitletObject<Commit.Data> {
         return data_.altParent_;
     }
 
+    public Instant getTimestamp() {
+        return data_.timestamp_;
+    }
+
     // Static
     private static final String LOG_DATE_PATTERN = "EEE MMM d HH:mm:ss yyyy Z";
 
-    public static class Data implements Serializable, ToBytesConvertible {
+    /**
+     * Format a commit as printed by log, from its parts
+     */
+    public static String logEntry(String sha1, String parent, String altParent,
+                                  Instant timestamp, String msg) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("===\n");
+        sb.append("commit ");
+        sb.append(sha1);
+        if (altParent != null) {
+            sb.append("\nMerge: ");
+            sb.append(parent, 0, 7);
+            sb.append(" ");
+            sb.append(altParent, 0, 7);
+        }
+        sb.append("\nDate: ");
+        sb.append(dateString(timestamp));
+        sb.append("\n");
+        sb.append(msg);
+        sb.append("\n\n");
+        return sb.toString();
+    }
+
+    private static String dateString(Instant timestamp) {
+        DateTimeFormatter f =
+                DateTimeFormatter.ofPattern(LOG_DATE_PATTERN).withZone(ZoneId.systemDefault());
+        return f.format(timestamp);
+    }
+
+    public static class Data implements ToBytesConvertible {
+        private static final int VERSION = 2;
+
         public Instant timestamp_;
         public String msg_;
-        /* maps filename to blob hash */
-        public TreeMap<String, String> files_;
+        /* SHA-1 hash of the root tree */
+        public String tree_;
         public String parent_;
         public String altParent_;
 
-        public Data() {
-            files_ = new TreeMap<>();
+        @Override
+        public void write(DataOutput out) throws IOException {
+            Codec.writeHeader(out, Codec.TAG_COMMIT, VERSION);
+            out.writeLong(timestamp_.getEpochSecond());
+            out.writeInt(timestamp_.getNano());
+            Codec.writeString(out, msg_);
+            Codec.writeOptionalHash(out, parent_);
+            Codec.writeOptionalHash(out, altParent_);
+            Codec.writeHash(out, tree_);
         }
 
-        @Override
-        public byte[] toByteArray() {
-            ByteArrayOutputStream result = new ByteArrayOutputStream();
-            try {
-                result.write(timestamp_.toString().getBytes(StandardCharsets.UTF_8));
-                result.write(msg_.getBytes(StandardCharsets.UTF_8));
-                var fileSet = files_.entrySet();
-                for (var e : fileSet) {
-                    result.write(e.getKey().getBytes(StandardCharsets.UTF_8));
-                    result.write(e.getValue().getBytes(StandardCharsets.UTF_8));
-                }
-                if (parent_ != null) {
-                    result.write(parent_.getBytes(StandardCharsets.UTF_8));
-                }
-                if (altParent_ != null) {
-                    result.write(altParent_.getBytes(StandardCharsets.UTF_8));
-                }
-            } catch (IOException e) {
-                System.out.println("Failed to convert Commit.Data into byte array");
-                System.exit(0);
-            }
-            return result.toByteArray();
+        public static Data read(DataInput in) throws IOException {
+            Codec.readHeader(in, Codec.TAG_COMMIT, VERSION);
+            Data d = new Data();
+            long seconds = in.readLong();
+            d.timestamp_ = Instant.ofEpochSecond(seconds, in.readInt());
+            d.msg_ = Codec.readString(in);
+            d.parent_ = Codec.readOptionalHash(in);
+            d.altParent_ = Codec.readOptionalHash(in);
+            d.tree_ = Codec.readHash(in);
+            return d;
         }
     }
 
+    /**
+     * Create a commit of the files staged in an index, saving the trees of
+     * the directories that changed since the index was last written
+     */
     public static Commit fromIndex(Index i, String msg, String parent, String altParent) {
-        var entries = i.entrySet();
+        return fromIndex(i, msg, parent, altParent, Instant.now());
+    }
+
+    /**
+     * Create a commit of the files staged in an index, made at a given time
+     */
+    public static Commit fromIndex(Index i, String msg, String parent, String altParent,
+                                   Instant timestamp) {
         Commit c = new Commit();
+        c.data_.timestamp_ = timestamp;
         c.data_.msg_ = msg;
         c.data_.parent_ = parent;
         c.data_.altParent_ = altParent;
-        entries.forEach(entry -> {
-            c.data_.files_.put(entry.getKey(), entry.getValue());
-        });
+        c.data_.tree_ = i.writeTree();
         return c;
     }
 
     public static Commit fromObjects(String sha1) {
-        return new Commit(sha1);
+        return ObjectCache.get(sha1, Commit.class, Commit::new);
     }
 
     public static Commit initial() {
@@ -159,8 +189,19 @@ public class Commit extends GitletObject<Commit.Data> {
         c.data_.timestamp_ = Instant.EPOCH;
         c.data_.parent_ = null;
         c.data_.altParent_ = null;
+        c.data_.tree_ = Index.createEmpty().writeTree();
         return c;
     }
 
     // Private members
+    /* maps path to blob hash, read from the trees on first use */
+    private TreeMap<String, String> files_;
+
+    private TreeMap<String, String> files() {
+        if (files_ == null) {
+            files_ = new TreeMap<>();
+            Tree.flatten(data_.tree_, "", files_, null);
+        }
+        return files_;
+    }
 }
@@ -0,0 +1,492 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * Sidecar files with the ancestry and message of every commit, so that
+ * history can be walked and logged without loading commit objects. The
+ * graph is also the catalog of all commits of the repository.
+ * <p>
+ * commit-graph is a header (magic "GCGR", version and flags) followed by
+ * fixed-width records, one per commit, in the order the commits were added:
+ * the 20-byte hash, the record numbers of the parent and second parent (-1
+ * if none), the generation number (1 for the initial commit, otherwise one
+ * more than its parents' largest), the commit timestamp and the offset of
+ * the message in commit-messages. Parents always come before their
+ * children, so new commits are appended.
+ * <p>
+ * commit-messages holds each message as a length and UTF-8 bytes.
+ * <p>
+ * The files are mapped rather than read, and each record is checked when
+ * first used, so that a command pays only for the records it touches. New
+ * records and messages are appended as part of the command's transaction;
+ * the files are rewritten whole only when the graph is rebuilt or its
+ * flags change.
+ * <p>
+ * The files are only a cache: commits missing from them are read from the
+ * object store and added when they are looked up. The COMPLETE flag is set
+ * once the graph is known to list every commit in the object store.
+ */
+public class CommitGraph {
+    // Static
+    public static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+    public static final File MESSAGES_FILE = join(Repository.GITLET_DIR, "commit-messages");
+
+    private static final int MAGIC = 0x47434752; // "GCGR"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 12;
+    private static final int RECORD_LENGTH = HASH_LENGTH + 4 + 4 + 4 + 8 + 4 + 8;
+    private static final int MESSAGE_FIELD = HASH_LENGTH + 24;
+    private static final int NONE = -1;
+    private static final int FLAG_COMPLETE = 1;
+    /* Newest records searched for a hash before every record is indexed */
+    private static final int RECENT_RECORDS = 64;
+
+    /**
+     * Load the commit graph, starting an empty one if the files are missing
+     * or unreadable
+     *
+     * @return CommitGraph
+     */
+    public static CommitGraph fromFilesystem() {
+        CommitGraph g = new CommitGraph();
+        if (!GRAPH_FILE.isFile() || !MESSAGES_FILE.isFile()) {
+            return g;
+        }
+        ByteBuffer records;
+        ByteBuffer messages;
+        try {
+            records = map(GRAPH_FILE);
+            messages = map(MESSAGES_FILE);
+        } catch (IOException e) {
+            return g;
+        }
+        if (records.capacity() < HEADER_LENGTH || records.getInt(0) != MAGIC
+                || records.getInt(4) != VERSION) {
+            return g;
+        }
+        // Appends are dropped when another process appended first, so the
+        // files may disagree only if something else went wrong: rebuild then
+        int count = (records.capacity() - HEADER_LENGTH) / RECORD_LENGTH;
+        long messagesEnd = 0;
+        if (count > 0) {
+            long last = records.getLong(HEADER_LENGTH + (count - 1) * RECORD_LENGTH
+                    + MESSAGE_FIELD);
+            if (last < 0 || last > messages.capacity() - 4) {
+                return g;
+            }
+            messagesEnd = last + 4 + messages.getInt((int) last);
+        }
+        if (HEADER_LENGTH + count * RECORD_LENGTH != records.capacity()
+                || messagesEnd != messages.capacity()) {
+            return g;
+        }
+        g.records_ = records;
+        g.messages_ = messages;
+        g.loaded_ = count;
+        g.count_ = count;
+        g.saved_ = count;
+        g.messagesLoaded_ = messagesEnd;
+        g.complete_ = (records.getInt(8) & FLAG_COMPLETE) != 0;
+        return g;
+    }
+
+    /**
+     * Start the graph of a new repository, which has no commits yet
+     *
+     * @return CommitGraph, known to be complete
+     */
+    public static CommitGraph createEmpty() {
+        CommitGraph g = new CommitGraph();
+        g.complete_ = true;
+        return g;
+    }
+
+    // Constructor
+    private CommitGraph() {
+        records_ = ByteBuffer.allocate(HEADER_LENGTH);
+        messages_ = ByteBuffer.allocate(0);
+        checked_ = new BitSet();
+        added_ = new byte[0];
+        addedMessages_ = new ByteArrayOutputStream();
+    }
+
+    // Public methods
+    public int numCommits() {
+        return count_;
+    }
+
+    /**
+     * @return whether every commit in the object store is in the graph
+     */
+    public boolean isComplete() {
+        return complete_;
+    }
+
+    /**
+     * Add every commit in the object store, once, so that the graph can
+     * serve as the catalog of all commits
+     */
+    public void completeFromObjects() {
+        if (complete_) {
+            return;
+        }
+        for (String sha1 : ObjectStore.list()) {
+            if (ObjectStore.typeOf(sha1) == Codec.TAG_COMMIT) {
+                lookup(sha1);
+            }
+        }
+        complete_ = true;
+        flagsChanged_ = true;
+    }
+
+    /**
+     * Find the record of a commit, adding it and any missing ancestors from
+     * the object store
+     *
+     * @param sha1 SHA-1 hash of a commit
+     * @return record number
+     */
+    public int lookup(String sha1) {
+        int i = indexOf(sha1);
+        if (i != NONE) {
+            return i;
+        }
+        // Add ancestors before descendants, without recursion
+        List<Commit> stack = new ArrayList<>();
+        stack.add(Commit.fromObjects(sha1));
+        while (!stack.isEmpty()) {
+            Commit c = stack.get(stack.size() - 1);
+            if (indexOf(c.getSHA1Hash()) != NONE) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            String missing = null;
+            for (String p : new String[]{c.getParent(), c.getAltParent()}) {
+                if (p != null && indexOf(p) == NONE) {
+                    missing = p;
+                }
+            }
+            if (missing != null) {
+                stack.add(Commit.fromObjects(missing));
+            } else {
+                add(c);
+                stack.remove(stack.size() - 1);
+            }
+        }
+        return indexOf(sha1);
+    }
+
+    /**
+     * Add a new commit, which is not in the graph yet but whose parents are
+     *
+     * @param c commit
+     */
+    public void add(Commit c) {
+        int parent = c.getParent() == null ? NONE : indexOf(c.getParent());
+        int altParent = c.getAltParent() == null ? NONE : indexOf(c.getAltParent());
+        if ((c.getParent() != null && parent == NONE)
+                || (c.getAltParent() != null && altParent == NONE)) {
+            throw new GitletException("parent of commit " + c.getSHA1Hash() + " not in graph");
+        }
+        int generation = 1;
+        if (parent != NONE) {
+            generation = Math.max(generation, generation(parent) + 1);
+        }
+        if (altParent != NONE) {
+            generation = Math.max(generation, generation(altParent) + 1);
+        }
+        int added = (count_ - loaded_) * RECORD_LENGTH;
+        if (added + RECORD_LENGTH > added_.length) {
+            added_ = Arrays.copyOf(added_, Math.max(2 * added_.length, added + RECORD_LENGTH));
+        }
+        ByteBuffer b = ByteBuffer.wrap(added_, added, RECORD_LENGTH);
+        b.put(hexToBytes(c.getSHA1Hash()));
+        b.putInt(parent);
+        b.putInt(altParent);
+        b.putInt(generation);
+        b.putLong(c.getTimestamp().getEpochSecond());
+        b.putInt(c.getTimestamp().getNano());
+        b.putLong(messagesLoaded_ + addedMessages_.size());
+        byte[] msg = c.getMsg().getBytes(StandardCharsets.UTF_8);
+        addedMessages_.writeBytes(ByteBuffer.allocate(4).putInt(msg.length).array());
+        addedMessages_.writeBytes(msg);
+        addedView_ = null;
+        if (positions_ != null) {
+            positions_.put(c.getSHA1Hash(), count_);
+        }
+        count_++;
+    }
+
+    public String hash(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        field(i).get(0, hash);
+        return bytesToHex(hash, 0, HASH_LENGTH);
+    }
+
+    /**
+     * @return record number of the first parent, or -1 for the initial commit
+     */
+    public int parent(int i) {
+        return field(i).getInt(HASH_LENGTH);
+    }
+
+    /**
+     * @return record number of the second parent, or -1 unless a merge
+     */
+    public int altParent(int i) {
+        return field(i).getInt(HASH_LENGTH + 4);
+    }
+
+    public int generation(int i) {
+        return field(i).getInt(HASH_LENGTH + 8);
+    }
+
+    public Instant timestamp(int i) {
+        ByteBuffer b = field(i);
+        return Instant.ofEpochSecond(b.getLong(HASH_LENGTH + 12), b.getInt(HASH_LENGTH + 20));
+    }
+
+    public String message(int i) {
+        long off = messageOffset(i);
+        if (i >= loaded_ && addedView_ == null) {
+            addedView_ = ByteBuffer.wrap(addedMessages_.toByteArray());
+        }
+        ByteBuffer source = i < loaded_ ? messages_ : addedView_;
+        int pos = (int) (i < loaded_ ? off : off - messagesLoaded_);
+        byte[] msg = new byte[source.getInt(pos)];
+        source.get(pos + 4, msg);
+        return new String(msg, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return log entry of a commit, as printed by log and global-log
+     */
+    public String logEntry(int i) {
+        return Commit.logEntry(hash(i), parent(i) == NONE ? null : hash(parent(i)),
+                altParent(i) == NONE ? null : hash(altParent(i)), timestamp(i), message(i));
+    }
+
+    /**
+     * Find the latest common ancestor of two commits. Commits are visited
+     * in decreasing generation order, and the walk stops once every commit
+     * left to visit is known to be an ancestor of a common ancestor.
+     *
+     * @param a SHA-1 hash of a commit
+     * @param b SHA-1 hash of another commit
+     * @return SHA-1 hash of the common ancestor, or null if there is none
+     */
+    public String mergeBase(String a, String b) {
+        final int fromA = 1;
+        final int fromB = 2;
+        final int stale = 4;
+        int ia = lookup(a);
+        int ib = lookup(b);
+        int[] flags = new int[count_];
+        // Highest generation first, then most recent, then latest added
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generation(y), generation(x));
+            if (cmp == 0) {
+                cmp = timestamp(y).compareTo(timestamp(x));
+            }
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+        flags[ia] |= fromA;
+        flags[ib] |= fromB;
+        queue.add(ia);
+        if (ib != ia) {
+            queue.add(ib);
+        }
+        int live = queue.size();
+        int best = NONE;
+        while (live > 0) {
+            int c = queue.remove();
+            int f = flags[c];
+            if ((f & stale) == 0) {
+                live--;
+            }
+            f &= fromA | fromB | stale;
+            if ((f & (fromA | fromB)) == (fromA | fromB) && (f & stale) == 0) {
+                // The first common ancestor reached has the highest generation
+                if (best == NONE) {
+                    best = c;
+                }
+                f |= stale;
+            }
+            for (int p : new int[]{parent(c), altParent(c)}) {
+                if (p == NONE || (flags[p] & f) == f) {
+                    continue;
+                }
+                boolean queued = flags[p] != 0;
+                boolean wasLive = queued && (flags[p] & stale) == 0;
+                flags[p] |= f;
+                boolean isLive = (flags[p] & stale) == 0;
+                if (!queued) {
+                    queue.add(p);
+                }
+                if (isLive && !wasLive) {
+                    live++;
+                } else if (!isLive && wasLive) {
+                    live--;
+                }
+            }
+        }
+        return best == NONE ? null : hash(best);
+    }
+
+    /**
+     * Append records and messages added since the last save to the files,
+     * or rewrite them if the graph was rebuilt or its flags changed, as
+     * part of the open transaction
+     */
+    public void save() {
+        if (saved_ == count_ && !flagsChanged_) {
+            return;
+        }
+        byte[] records;
+        byte[] messages;
+        if (saved_ > 0 && !flagsChanged_) {
+            int from = (saved_ - loaded_) * RECORD_LENGTH;
+            records = Arrays.copyOfRange(added_, from, (count_ - loaded_) * RECORD_LENGTH);
+            long messagesFrom = messageOffset(saved_);
+            byte[] added = addedMessages_.toByteArray();
+            messages = Arrays.copyOfRange(added, (int) (messagesFrom - messagesLoaded_),
+                    added.length);
+            // Messages first: a record must never point past the messages
+            Transaction.writeAt(MESSAGES_FILE, messagesFrom, messages);
+            Transaction.writeAt(GRAPH_FILE, HEADER_LENGTH + (long) saved_ * RECORD_LENGTH,
+                    records);
+        } else {
+            for (int i = 0; i < loaded_; i++) {
+                check(i);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION)
+                    .putInt(flags()).array());
+            out.writeBytes(bytes(records_, HEADER_LENGTH, loaded_ * RECORD_LENGTH));
+            out.write(added_, 0, (count_ - loaded_) * RECORD_LENGTH);
+            records = out.toByteArray();
+            out = new ByteArrayOutputStream();
+            out.writeBytes(bytes(messages_, 0, (int) messagesLoaded_));
+            out.writeBytes(addedMessages_.toByteArray());
+            Transaction.write(MESSAGES_FILE, out.toByteArray());
+            Transaction.write(GRAPH_FILE, records);
+        }
+        saved_ = count_;
+        flagsChanged_ = false;
+    }
+
+    // Private members
+    /* the mapped graph file, or just a header */
+    private ByteBuffer records_;
+    /* the mapped messages file */
+    private ByteBuffer messages_;
+    /* number of records in the mapped file */
+    private int loaded_;
+    /* records of the mapped file checked so far */
+    private final BitSet checked_;
+    /* records added since the graph was loaded */
+    private byte[] added_;
+    /* messages of the added records */
+    private final ByteArrayOutputStream addedMessages_;
+    /* copy of the added messages to read from, made on first use */
+    private ByteBuffer addedView_;
+    /* length of commit-messages used by the mapped records */
+    private long messagesLoaded_;
+    private int count_;
+    /* number of records handed to the transaction */
+    private int saved_;
+    /* maps commit hash to record number, built once a recent commit is missed */
+    private Map<String, Integer> positions_;
+    private boolean complete_;
+    private boolean flagsChanged_;
+
+    private static ByteBuffer map(File f) throws IOException {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer b, int index, int length) {
+        byte[] result = new byte[length];
+        b.get(index, result);
+        return result;
+    }
+
+    private int flags() {
+        return complete_ ? FLAG_COMPLETE : 0;
+    }
+
+    private long messageOffset(int i) {
+        return field(i).getLong(MESSAGE_FIELD);
+    }
+
+    private ByteBuffer field(int i) {
+        if (i < 0 || i >= count_) {
+            throw new GitletException("bad commit graph record " + i);
+        }
+        if (i >= loaded_) {
+            return ByteBuffer.wrap(added_, (i - loaded_) * RECORD_LENGTH, RECORD_LENGTH).slice();
+        }
+        check(i);
+        return records_.slice(HEADER_LENGTH + i * RECORD_LENGTH, RECORD_LENGTH);
+    }
+
+    /* Check that a mapped record points only at earlier records and that
+     * its message lies within commit-messages, before the next message */
+    private void check(int i) {
+        if (checked_.get(i)) {
+            return;
+        }
+        int at = HEADER_LENGTH + i * RECORD_LENGTH;
+        int parent = records_.getInt(at + HASH_LENGTH);
+        int altParent = records_.getInt(at + HASH_LENGTH + 4);
+        long off = records_.getLong(at + MESSAGE_FIELD);
+        long next = i == loaded_ - 1 ? messagesLoaded_
+                : records_.getLong(at + RECORD_LENGTH + MESSAGE_FIELD);
+        if (parent < NONE || parent >= i || altParent < NONE || altParent >= i
+                || records_.getInt(at + HASH_LENGTH + 8) < 1
+                || off < 0 || next > messagesLoaded_ || off > next - 4
+                || messages_.getInt((int) off) != next - off - 4) {
+            throw new GitletException("The commit graph is corrupt; run gc to rebuild it.");
+        }
+        checked_.set(i);
+    }
+
+    /* record number of a commit, or NONE if it is not in the graph */
+    private int indexOf(String sha1) {
+        if (positions_ == null) {
+            // Most commits looked up are recent, such as the parent of a new one
+            byte[] hash = hexToBytes(sha1);
+            for (int i = count_ - 1; i >= 0 && i >= count_ - RECENT_RECORDS; i--) {
+                if (field(i).slice(0, HASH_LENGTH).equals(ByteBuffer.wrap(hash))) {
+                    return i;
+                }
+            }
+            if (count_ <= RECENT_RECORDS) {
+                return NONE;
+            }
+            positions_ = new HashMap<>(count_ * 2);
+            for (int i = 0; i < count_; i++) {
+                positions_.put(hash(i), i);
+            }
+        }
+        return positions_.getOrDefault(sha1, NONE);
+    }
+}
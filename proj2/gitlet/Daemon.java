@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static gitlet.Utils.*;
+
+/**
+ * Serves the commands of the repository in the current directory from one
+ * long-running process, so that they do not each pay for starting a JVM
+ * and loading classes, and find the object cache warm. Start it with
+ * java gitlet.Main daemon
+ * and run commands through the thin client, in the same directory:
+ * java gitlet.Client status
+ * <p>
+ * The daemon listens on the Unix domain socket .gitlet/daemon.sock and runs
+ * one command at a time, with the same output as gitlet.Main and under the
+ * same locks, so other gitlet processes may still use the repository.
+ * Head, branches and index are read again only once replaced, and cached
+ * objects and packs are dropped once another process has repacked.
+ * java gitlet.Client daemon stop
+ * ends the daemon.
+ * <p>
+ * A request is the number of arguments, then each argument as written by
+ * DataOutput.writeUTF. The reply is the output of the command as chunks,
+ * each a length and that many bytes, then a length of -1 and the status
+ * the command would have exited with.
+ */
+public class Daemon {
+    // Static
+    public static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /* Length that ends the reply, followed by the exit status */
+    public static final int END_OF_OUTPUT = -1;
+
+    private static final int MAX_ARGS = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Usage: java gitlet.Main daemon [stop]
+     */
+    public static void main(String[] args) {
+        try {
+            Main.checkRepoExistence();
+            if (args.length == 1 && args[0].equals("stop")) {
+                if (!Client.isRunning()) {
+                    throw new GitletException("No gitlet daemon is running.");
+                }
+                Client.forward(new String[]{"daemon", "stop"}, System.out);
+            } else if (args.length != 0) {
+                Main.errorOperandIncorrect();
+            } else {
+                serve();
+            }
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // Private members
+    private static boolean running_;
+    /* when the pack folder last changed, as of the previous command */
+    private static FileTime packsModified_;
+
+    private static void serve() {
+        if (SOCKET.exists()) {
+            if (Client.isRunning()) {
+                throw new GitletException("A gitlet daemon is already running.");
+            }
+            // Left by a daemon that did not stop cleanly
+            SOCKET.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            System.out.println("Serving gitlet commands on " + SOCKET);
+            packsModified_ = packsModified();
+            running_ = true;
+            while (running_) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException e) {
+                    // The client went away; serve the next one
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to serve on " + SOCKET + ": " + e.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        int n = in.readInt();
+        if (n < 0 || n > MAX_ARGS) {
+            return;
+        }
+        String[] args = new String[n];
+        for (int i = 0; i < n; i++) {
+            args[i] = in.readUTF();
+        }
+
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+        PrintStream reply = new PrintStream(new BufferedOutputStream(new Chunks(out), CHUNK_SIZE),
+                false, StandardCharsets.UTF_8);
+        int status = 0;
+        if (n == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+            running_ = false;
+            reply.println("Stopped the gitlet daemon.");
+        } else {
+            status = run(args, reply);
+        }
+        reply.flush();
+        out.writeInt(END_OF_OUTPUT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /* Run a command with its output going to REPLY, returning its exit
+     * status */
+    private static int run(String[] args, PrintStream reply) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(reply);
+        System.setErr(reply);
+        try {
+            refresh();
+            Main.execute(args);
+            return 0;
+        } catch (RuntimeException | Error e) {
+            // As the JVM would for an uncaught exception
+            e.printStackTrace();
+            return 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /* Drop what another process may have made stale since the previous
+     * command. Packs are only ever replaced, by repack and gc, which may
+     * delete cached objects along with the old packs. */
+    private static void refresh() {
+        FileTime modified = packsModified();
+        if (!modified.equals(packsModified_)) {
+            ObjectStore.forgetPacks();
+            ObjectCache.clear();
+            packsModified_ = modified;
+        }
+    }
+
+    private static FileTime packsModified() {
+        try {
+            return Files.getLastModifiedTime(ObjectStore.PACK_FOLDER.toPath());
+        } catch (IOException e) {
+            // No pack folder yet
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /* Writes each buffer as a chunk of the reply */
+    private static class Chunks extends OutputStream {
+        Chunks(DataOutputStream out) {
+            out_ = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                out_.writeInt(len);
+                out_.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out_.flush();
+        }
+
+        private final DataOutputStream out_;
+    }
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Times commands run by a new JVM each, by the thin client through the
+ * daemon, and by the daemon alone. Invoke in an empty scratch directory as
+ * java gitlet.DaemonBenchmark [files]
+ * <p>
+ * Creates a repository with one commit of 1000 files (by default) and
+ * reports the mean latency of status and log over a few rounds: as
+ * java gitlet.Main, as java gitlet.Client with a daemon running, and as
+ * requests sent straight to the daemon from this process, which is what a
+ * client that is not a JVM would see. The repository is left in place.
+ */
+public class DaemonBenchmark {
+    private static final int ROUNDS = 10;
+    private static final String[][] COMMANDS = {{"status"}, {"log"}};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        Repository.init();
+        for (int i = 0; i < n; i++) {
+            writeContents(join(Repository.CWD, "file" + i + ".txt"), "version 0 of " + i + "\n");
+        }
+        Repository.add(".");
+        Repository.commit("base");
+        // add took the lock, which the daemon needs
+        RepoLock.release();
+
+        System.out.printf("%8s %-8s %12s %12s %12s\n", "files", "command", "main (ms)",
+                "client (ms)", "daemon (ms)");
+        System.out.printf("----------------------------------------------------------\n");
+        Process daemon = java("gitlet.Main", new String[]{"daemon"}).start();
+        try {
+            while (!Client.isRunning()) {
+                if (!daemon.isAlive()) {
+                    throw new IllegalStateException("the daemon did not start");
+                }
+                Thread.sleep(10);
+            }
+            for (String[] command : COMMANDS) {
+                double main = 0;
+                double client = 0;
+                double direct = 0;
+                // One extra round warms up the daemon and is not counted
+                for (int r = 0; r <= ROUNDS; r++) {
+                    double m = timeProcess("gitlet.Main", command);
+                    double c = timeProcess("gitlet.Client", command);
+                    long start = System.nanoTime();
+                    Client.forward(command, OutputStream.nullOutputStream());
+                    double d = (System.nanoTime() - start) / 1e6;
+                    if (r > 0) {
+                        main += m;
+                        client += c;
+                        direct += d;
+                    }
+                }
+                System.out.printf("%8d %-8s %12.1f %12.1f %12.2f\n", n, command[0],
+                        main / ROUNDS, client / ROUNDS, direct / ROUNDS);
+            }
+        } finally {
+            Client.forward(new String[]{"daemon", "stop"}, OutputStream.nullOutputStream());
+            daemon.waitFor();
+        }
+    }
+
+    /* Run a main class in a new JVM, returning its time in milliseconds */
+    private static double timeProcess(String mainClass, String[] args)
+            throws IOException, InterruptedException {
+        ProcessBuilder pb = java(mainClass, args).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        int status = pb.start().waitFor();
+        double ms = (System.nanoTime() - start) / 1e6;
+        if (status != 0) {
+            throw new IllegalStateException(mainClass + " exited with " + status);
+        }
+        return ms;
+    }
+
+    private static ProcessBuilder java(String mainClass, String[] args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).redirectErrorStream(true);
+    }
+}
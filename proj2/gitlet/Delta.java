@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Binary deltas between two versions of an object, in the style of xdelta.
+ * <p>
+ * A delta is the length of the base and of the target, each as a varint,
+ * followed by instructions that rebuild the target from left to right:
+ * <p>
+ * COPY: a byte 0x80, then offset and length in the base as varints.
+ * <p>
+ * INSERT: a byte n in 1..127, then n literal bytes.
+ */
+public class Delta {
+    // Static
+    /* Length of the blocks of the base indexed for matching */
+    private static final int BLOCK = 16;
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+    /* Multiplier of the rolling hash */
+    private static final int B = 31;
+    /* B to the power BLOCK - 1 */
+    private static final int B_POW;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            p *= B;
+        }
+        B_POW = p;
+    }
+
+    /**
+     * Compute a delta that rebuilds TARGET from BASE
+     *
+     * @param base   base version
+     * @param target target version
+     * @return delta
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // Index every block-aligned block of the base by its hash
+        int blocks = base.length / BLOCK;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(2 * blocks, 1));
+        int[] table = new int[1 << bits];
+        Arrays.fill(table, -1);
+        for (int off = (blocks - 1) * BLOCK; off >= 0; off -= BLOCK) {
+            // Earliest block wins
+            table[slot(hash(base, off), bits)] = off;
+        }
+
+        int tlen = target.length;
+        int insertStart = 0;
+        int i = 0;
+        int h = tlen >= BLOCK ? hash(target, 0) : 0;
+        while (blocks > 0 && i + BLOCK <= tlen) {
+            int cand = table[slot(h, bits)];
+            if (cand >= 0 && Arrays.equals(base, cand, cand + BLOCK, target, i, i + BLOCK)) {
+                int len = BLOCK;
+                while (cand + len < base.length && i + len < tlen
+                        && base[cand + len] == target[i + len]) {
+                    len++;
+                }
+                int back = 0;
+                while (back < i - insertStart && back < cand
+                        && base[cand - back - 1] == target[i - back - 1]) {
+                    back++;
+                }
+                writeInsert(out, target, insertStart, i - back);
+                out.write(COPY);
+                writeVarint(out, cand - back);
+                writeVarint(out, len + back);
+                i += len;
+                insertStart = i;
+                if (i + BLOCK <= tlen) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < tlen) {
+                    h = (h - target[i] * B_POW) * B + target[i + BLOCK];
+                }
+                i++;
+            }
+        }
+        writeInsert(out, target, insertStart, tlen);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target of a delta
+     *
+     * @param base  base version the delta was created against
+     * @param delta delta from create()
+     * @return target version
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new GitletException("delta does not match its base");
+        }
+        long tlen = readVarint(delta, pos);
+        if (tlen > Integer.MAX_VALUE) {
+            throw new GitletException("corrupt delta");
+        }
+        byte[] target = new byte[(int) tlen];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                long off = readVarint(delta, pos);
+                long len = readVarint(delta, pos);
+                if (off + len > base.length || t + len > target.length) {
+                    throw new GitletException("corrupt delta");
+                }
+                System.arraycopy(base, (int) off, target, t, (int) len);
+                t += len;
+            } else if (op >= 1 && op <= MAX_INSERT) {
+                if (pos[0] + op > delta.length || t + op > target.length) {
+                    throw new GitletException("corrupt delta");
+                }
+                System.arraycopy(delta, pos[0], target, t, op);
+                pos[0] += op;
+                t += op;
+            } else {
+                throw new GitletException("corrupt delta");
+            }
+        }
+        if (t != target.length) {
+            throw new GitletException("corrupt delta");
+        }
+        return target;
+    }
+
+    // Private members
+    private static int hash(byte[] b, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * B + b[off + k];
+        }
+        return h;
+    }
+
+    private static int slot(int h, int bits) {
+        return (h * 0x9e3779b1) >>> (32 - bits);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] b, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(b, from, n);
+            from += n;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(byte[] b, int[] pos) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= b.length) {
+                throw new GitletException("corrupt delta");
+            }
+            int x = b[pos[0]++] & 0xff;
+            v |= (long) (x & 0x7f) << shift;
+            if ((x & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new GitletException("corrupt delta");
+    }
+}
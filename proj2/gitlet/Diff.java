@@ -0,0 +1,690 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-based comparison of texts.
+ * <p>
+ * match() finds a shortest edit script between two texts with Myers'
+ * O((N+M)D) algorithm, in the linear-space form that splits the problem
+ * at the middle snake of the script rather than keeping a trace of every
+ * step. When a first search bounded to a few passes over the lines does
+ * not find the script, lines found in only one of the texts are left out
+ * and the search is repeated.
+ * <p>
+ * merge3() uses it for a diff3 merge of two versions of a text with
+ * their common ancestor, and writeUnified() for a unified diff of two
+ * files.
+ * <p>
+ * Texts held in memory have their lines numbered exactly. Files are only
+ * read to hash their lines with a 64-bit hash, and read again to copy out
+ * the lines of each hunk, so a diff takes memory in proportion to the
+ * number of lines and to the edit distance, not to the size of the files.
+ */
+public class Diff {
+    // Static
+    private static final byte[] CONFLICT_START =
+            "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONFLICT_SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONFLICT_END = ">>>>>>>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_NEWLINE =
+            "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /* Lines of unchanged context around each hunk of a unified diff */
+    private static final int CONTEXT = 3;
+    /* A file with a NUL byte in this many first bytes is binary, as in git */
+    private static final int BINARY_SAMPLE = 8000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /* Passes over the lines the first, unfiltered search may take */
+    private static final int QUICK_PASSES = 8;
+    private static final long HASH_SEED = 0x27d4eb2f165667c5L;
+    private static final long HASH_PRIME_1 = 0x9e3779b97f4a7c15L;
+    private static final long HASH_PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The lines of a text, each with its terminating '\n' if it has one,
+     * reduced to keys that are equal for equal lines
+     */
+    public static class Lines {
+        private Lines(long[] keys, byte[] text, int[] starts) {
+            keys_ = keys;
+            text_ = text;
+            starts_ = starts;
+        }
+
+        public int size() {
+            return keys_.length;
+        }
+
+        /**
+         * Copy lines FROM to TO, exclusive, of a text held in memory to OUT
+         */
+        public void write(ByteArrayOutputStream out, int from, int to) {
+            out.write(text_, starts_[from], starts_[to] - starts_[from]);
+        }
+
+        private final long[] keys_;
+        /* null for a file */
+        private final byte[] text_;
+        /* offset of each line, then the length of the text */
+        private final int[] starts_;
+    }
+
+    /**
+     * Split texts into lines, numbering equal lines alike across all of them
+     *
+     * @param texts texts to compare
+     * @return lines of each text
+     */
+    public static Lines[] split(byte[]... texts) {
+        Map<ByteBuffer, Long> ids = new HashMap<>();
+        Lines[] result = new Lines[texts.length];
+        for (int t = 0; t < texts.length; t++) {
+            byte[] text = texts[t];
+            int count = 0;
+            for (int i = 0; i < text.length; i++) {
+                if (text[i] == '\n' || i == text.length - 1) {
+                    count++;
+                }
+            }
+            int[] starts = new int[count + 1];
+            long[] lineIds = new long[count];
+            int start = 0;
+            for (int n = 0; n < count; n++) {
+                int end = start;
+                while (text[end] != '\n' && end < text.length - 1) {
+                    end++;
+                }
+                end++;
+                starts[n] = start;
+                ByteBuffer line = ByteBuffer.wrap(text, start, end - start).slice();
+                lineIds[n] = ids.computeIfAbsent(line, k -> (long) ids.size());
+                start = end;
+            }
+            starts[count] = text.length;
+            result[t] = new Lines(lineIds, text, starts);
+        }
+        return result;
+    }
+
+    /**
+     * Match the lines of two texts along a shortest edit script
+     *
+     * @param a lines of the old text
+     * @param b lines of the new text, split together with A
+     * @return for each line of A, the line of B it is kept as, or -1 if it
+     * is deleted
+     */
+    public static int[] match(Lines a, Lines b) {
+        int n = a.size();
+        int m = b.size();
+        int[] result = new int[n];
+        Arrays.fill(result, -1);
+        int start = 0;
+        while (start < n && start < m && a.keys_[start] == b.keys_[start]) {
+            result[start] = start;
+            start++;
+        }
+        int end = 0;
+        while (end < n - start && end < m - start
+                && a.keys_[n - 1 - end] == b.keys_[m - 1 - end]) {
+            result[n - 1 - end] = m - 1 - end;
+            end++;
+        }
+
+        // Most changes to large texts are small: first search for a short
+        // edit script, giving up after a few passes over the lines
+        Frontier quick = new Frontier(QUICK_PASSES * (long) (n + m - 2 * start - 2 * end));
+        if (compare(a.keys_, start, n - end, b.keys_, start, m - end, result, quick)) {
+            return result;
+        }
+        Arrays.fill(result, start, n - end, -1);
+
+        // Lines found in only one text cannot be matched. Leaving them out
+        // does not change the result, and makes the edit script much
+        // shorter when most changed lines are new.
+        int[] aLines = common(a.keys_, start, n - end, b.keys_, start, m - end);
+        int[] bLines = common(b.keys_, start, m - end, a.keys_, start, n - end);
+        long[] aKeys = new long[aLines.length];
+        long[] bKeys = new long[bLines.length];
+        for (int i = 0; i < aLines.length; i++) {
+            aKeys[i] = a.keys_[aLines[i]];
+        }
+        for (int i = 0; i < bLines.length; i++) {
+            bKeys[i] = b.keys_[bLines[i]];
+        }
+
+        int[] matched = new int[aKeys.length];
+        Arrays.fill(matched, -1);
+        compare(aKeys, 0, aKeys.length, bKeys, 0, bKeys.length, matched,
+                new Frontier(Long.MAX_VALUE));
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i] >= 0) {
+                result[aLines[i]] = bLines[matched[i]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hash the lines of files, reading them through a fixed-size buffer
+     *
+     * @param files files to compare
+     * @return lines of each file, without their text
+     */
+    public static Lines[] hashFiles(File... files) throws IOException {
+        Lines[] result = new Lines[files.length];
+        for (int t = 0; t < files.length; t++) {
+            long[] keys = new long[1024];
+            int count = 0;
+            byte[] buf = new byte[BUFFER_SIZE];
+            // buf[lineStart, limit) is the part of a line read so far
+            int lineStart = 0;
+            int limit = 0;
+            try (InputStream in = new FileInputStream(files[t])) {
+                while (true) {
+                    if (limit == buf.length) {
+                        if (lineStart == 0) {
+                            buf = Arrays.copyOf(buf, 2 * buf.length);
+                        } else {
+                            System.arraycopy(buf, lineStart, buf, 0, limit - lineStart);
+                            limit -= lineStart;
+                            lineStart = 0;
+                        }
+                    }
+                    int len = in.read(buf, limit, buf.length - limit);
+                    if (len < 0) {
+                        break;
+                    }
+                    for (int i = indexOfNewline(buf, limit, limit + len); i >= 0;
+                         i = indexOfNewline(buf, i + 1, limit + len)) {
+                        if (count == keys.length) {
+                            keys = Arrays.copyOf(keys, 2 * count);
+                        }
+                        keys[count++] = hashLine(buf, lineStart, i + 1);
+                        lineStart = i + 1;
+                    }
+                    limit += len;
+                }
+            }
+            if (lineStart < limit) {
+                keys = Arrays.copyOf(keys, count + 1);
+                keys[count++] = hashLine(buf, lineStart, limit);
+            }
+            result[t] = new Lines(Arrays.copyOf(keys, count), null, null);
+        }
+        return result;
+    }
+
+    /* Index of the first '\n' in BUF[from, to), or -1. Tests eight bytes
+     * at a time for a zero byte in their XOR with newlines. */
+    private static int indexOfNewline(byte[] buf, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long x = (long) LONGS.get(buf, i) ^ NEWLINES;
+            long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* 64-bit hash of BUF[from, to), eight bytes at a time */
+    private static long hashLine(byte[] buf, int from, int to) {
+        long h = HASH_SEED ^ (to - from);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(buf, i) * HASH_PRIME_1), 31) * HASH_PRIME_2;
+        }
+        for (; i < to; i++) {
+            h = Long.rotateLeft(h ^ ((buf[i] & 0xff) * HASH_PRIME_1), 31) * HASH_PRIME_2;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * @return whether a file looks binary: it has a NUL byte near its start
+     */
+    public static boolean isBinary(File f) throws IOException {
+        try (InputStream in = new FileInputStream(f)) {
+            for (byte c : in.readNBytes(BINARY_SAMPLE)) {
+                if (c == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the differences between two versions of a file to OUT as a
+     * unified diff, or one line saying they differ if either is binary.
+     * Hunks are written as they are found, copying lines from the files.
+     *
+     * @param path path of the file, shown in the headers
+     * @param a    old version, or null if the file is added
+     * @param b    new version, or null if the file is deleted
+     * @param out  destination
+     */
+    public static void writeUnified(String path, File a, File b,
+                                    OutputStream out) throws IOException {
+        String aName = a == null ? "/dev/null" : "a/" + path;
+        String bName = b == null ? "/dev/null" : "b/" + path;
+        out.write(("diff --git a/" + path + " b/" + path + "\n").getBytes(StandardCharsets.UTF_8));
+        if ((a != null && isBinary(a)) || (b != null && isBinary(b))) {
+            out.write(("Binary files " + aName + " and " + bName + " differ\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        out.write(("--- " + aName + "\n+++ " + bName + "\n").getBytes(StandardCharsets.UTF_8));
+
+        Lines la = a == null ? new Lines(new long[0], null, null) : hashFiles(a)[0];
+        Lines lb = b == null ? new Lines(new long[0], null, null) : hashFiles(b)[0];
+        int n = la.size();
+        int m = lb.size();
+        int[] toB = match(la, lb);
+
+        // Changed regions, as {a start, a end, b start, b end}
+        List<int[]> changes = new ArrayList<>();
+        for (int i = 0, j = 0; i < n || j < m; ) {
+            if (i < n && toB[i] == j) {
+                i++;
+                j++;
+                continue;
+            }
+            int aStart = i;
+            while (i < n && toB[i] < 0) {
+                i++;
+            }
+            int bEnd = i < n ? toB[i] : m;
+            changes.add(new int[]{aStart, i, j, bEnd});
+            j = bEnd;
+        }
+
+        try (LineReader ra = new LineReader(a); LineReader rb = new LineReader(b)) {
+            for (int c = 0; c < changes.size(); ) {
+                // Changes closer than twice the context share a hunk
+                int last = c;
+                while (last + 1 < changes.size()
+                        && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                    last++;
+                }
+                int[] first = changes.get(c);
+                int[] end = changes.get(last);
+                int aFrom = Math.max(0, first[0] - CONTEXT);
+                int bFrom = first[2] - (first[0] - aFrom);
+                int aTo = Math.min(n, end[1] + CONTEXT);
+                int bTo = end[3] + (aTo - end[1]);
+                out.write(("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n")
+                        .getBytes(StandardCharsets.UTF_8));
+
+                ra.skipTo(aFrom);
+                rb.skipTo(bFrom);
+                for (int k = c; k <= last; k++) {
+                    int[] change = changes.get(k);
+                    copyLines(' ', ra, change[0], rb, out);
+                    copyLines('-', ra, change[1], null, out);
+                    copyLines('+', rb, change[3], null, out);
+                }
+                copyLines(' ', ra, aTo, rb, out);
+                c = last + 1;
+            }
+        }
+    }
+
+    /* Range of lines FROM to TO, exclusive, in a hunk header */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return String.valueOf(from + 1);
+        }
+        // An empty range names the line before it
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /* Copy lines of FROM up to line TO, each after PREFIX, skipping as
+     * many lines of ALSO if it is not null */
+    private static void copyLines(char prefix, LineReader from, int to, LineReader also,
+                                  OutputStream out) throws IOException {
+        while (from.line_ < to) {
+            out.write(prefix);
+            byte[] line = from.next();
+            if (line.length > 0 && line[line.length - 1] == '\n') {
+                out.write(line);
+            } else {
+                out.write(line);
+                out.write(NO_NEWLINE);
+            }
+            if (also != null) {
+                also.skipTo(also.line_ + 1);
+            }
+        }
+    }
+
+    /* Reads a file forward line by line, through a fixed-size buffer */
+    private static class LineReader implements AutoCloseable {
+        /* reads nothing if F is null */
+        LineReader(File f) throws IOException {
+            in_ = f == null ? InputStream.nullInputStream() : new FileInputStream(f);
+        }
+
+        /* the next line, with its '\n' if it has one */
+        byte[] next() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (fill()) {
+                int i = indexOfNewline(buf_, pos_, limit_);
+                int end = i < 0 ? limit_ : i + 1;
+                line.write(buf_, pos_, end - pos_);
+                pos_ = end;
+                if (i >= 0) {
+                    break;
+                }
+            }
+            line_++;
+            return line.toByteArray();
+        }
+
+        /* move forward to the start of line N */
+        void skipTo(int n) throws IOException {
+            while (line_ < n && fill()) {
+                int i = indexOfNewline(buf_, pos_, limit_);
+                if (i < 0) {
+                    pos_ = limit_;
+                } else {
+                    pos_ = i + 1;
+                    line_++;
+                }
+            }
+            if (line_ < n) {
+                // The last line has no '\n'
+                line_ = n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in_.close();
+        }
+
+        /* number of the line at the read position */
+        int line_;
+        private final InputStream in_;
+        private final byte[] buf_ = new byte[BUFFER_SIZE];
+        private int pos_;
+        private int limit_;
+
+        /* make sure there is a byte to read, returning false at the end */
+        private boolean fill() throws IOException {
+            if (pos_ < limit_) {
+                return true;
+            }
+            limit_ = in_.read(buf_);
+            pos_ = 0;
+            if (limit_ <= 0) {
+                limit_ = 0;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Outcome of a three-way merge
+     */
+    public static class Merge {
+        Merge(byte[] content, boolean conflict) {
+            content_ = content;
+            conflict_ = conflict;
+        }
+
+        /* merged text, with conflict markers around conflicting changes */
+        public final byte[] content_;
+        public final boolean conflict_;
+    }
+
+    /**
+     * Merge two versions of a text with diff3: regions where both agree
+     * with the base are kept, a change made on one side only is taken, and
+     * regions changed differently on both sides are conflicts. A conflict
+     * is written as the HEAD version and the other version between
+     * markers, as a conflicting file is when merged whole.
+     *
+     * @param base   common ancestor
+     * @param ours   version of the current branch
+     * @param theirs version of the given branch
+     * @return Merge
+     */
+    public static Merge merge3(byte[] base, byte[] ours, byte[] theirs) {
+        Lines[] lines = split(base, ours, theirs);
+        Lines o = lines[0];
+        Lines a = lines[1];
+        Lines b = lines[2];
+        int[] toA = match(o, a);
+        int[] toB = match(o, b);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < o.size() || j < a.size() || k < b.size()) {
+            if (i < o.size() && toA[i] == j && toB[i] == k) {
+                // Stable line, unchanged on both sides
+                o.write(out, i, i + 1);
+                i++;
+                j++;
+                k++;
+                continue;
+            }
+            // Unstable chunk up to the next line kept by both sides
+            int next = i;
+            while (next < o.size() && (toA[next] < 0 || toB[next] < 0)) {
+                next++;
+            }
+            int aEnd = next < o.size() ? toA[next] : a.size();
+            int bEnd = next < o.size() ? toB[next] : b.size();
+            if (sameLines(o, i, next, a, j, aEnd)) {
+                b.write(out, k, bEnd);
+            } else if (sameLines(o, i, next, b, k, bEnd) || sameLines(a, j, aEnd, b, k, bEnd)) {
+                a.write(out, j, aEnd);
+            } else {
+                conflict = true;
+                out.writeBytes(CONFLICT_START);
+                a.write(out, j, aEnd);
+                out.writeBytes(CONFLICT_SEPARATOR);
+                b.write(out, k, bEnd);
+                out.writeBytes(CONFLICT_END);
+                if (next < o.size()) {
+                    out.write('\n');
+                }
+            }
+            i = next;
+            j = aEnd;
+            k = bEnd;
+        }
+        return new Merge(out.toByteArray(), conflict);
+    }
+
+    /* Indices in [from, to) of the lines of KEYS that are also in
+     * OTHER[otherFrom, otherTo) */
+    private static int[] common(long[] keys, int from, int to,
+                                long[] other, int otherFrom, int otherTo) {
+        // Open-addressing hash set of the other keys
+        int bits = 33 - Integer.numberOfLeadingZeros(Math.max(otherTo - otherFrom, 1));
+        long[] table = new long[1 << bits];
+        boolean[] used = new boolean[1 << bits];
+        for (int i = otherFrom; i < otherTo; i++) {
+            int slot = slot(other[i], bits);
+            while (used[slot] && table[slot] != other[i]) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            used[slot] = true;
+            table[slot] = other[i];
+        }
+        int[] result = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int slot = slot(keys[i], bits);
+            while (used[slot] && table[slot] != keys[i]) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (used[slot]) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int slot(long key, int bits) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> (64 - bits));
+    }
+
+    private static boolean sameLines(Lines x, int xFrom, int xTo, Lines y, int yFrom, int yTo) {
+        return Arrays.equals(x.keys_, xFrom, xTo, y.keys_, yFrom, yTo);
+    }
+
+    /* Record in MATCH the lines of a[aLo, aHi) kept in b[bLo, bHi),
+     * splitting the problem at the middle snake of a shortest edit script.
+     * Returns false if the work limit of FRONTIER was reached first. */
+    private static boolean compare(long[] a, int aLo, int aHi, long[] b, int bLo, int bHi,
+                                int[] match, Frontier frontier) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            match[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            // Only insertions or only deletions are left
+            return true;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, frontier);
+        if (snake == null
+                || !compare(a, aLo, aLo + snake[0], b, bLo, bLo + snake[1], match, frontier)) {
+            return false;
+        }
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+            match[aLo + x] = bLo + y;
+        }
+        return compare(a, aLo + snake[2], aHi, b, bLo + snake[3], bHi, match, frontier);
+    }
+
+    /* Furthest x reached on each diagonal k = x - y by the searches from
+     * the start (forward) and from the end (backward, on reversed texts).
+     * Grown as the searches go further, so it takes space in proportion
+     * to the edit distance rather than to the length of the texts. Also
+     * counts the diagonals and snake steps visited, against a limit. */
+    private static class Frontier {
+        Frontier(long limit) {
+            limit_ = limit;
+        }
+
+        final long limit_;
+        long work_;
+        int[] forward_ = new int[2 * 16 + 1];
+        int[] backward_ = new int[2 * 16 + 1];
+        /* index of diagonal 0 */
+        int off_ = 16;
+
+        /* make room for diagonals -d - 1 to d + 1 */
+        void ensure(int d) {
+            if (d + 1 <= off_) {
+                return;
+            }
+            int off = Math.max(2 * off_, d + 1);
+            forward_ = grow(forward_, off);
+            backward_ = grow(backward_, off);
+            off_ = off;
+        }
+
+        private int[] grow(int[] v, int off) {
+            int[] result = new int[2 * off + 1];
+            System.arraycopy(v, 0, result, off - off_, v.length);
+            return result;
+        }
+    }
+
+    /* Find the middle snake of a shortest edit script from a[aLo, aHi) to
+     * b[bLo, bHi), searching from both ends at once until the searches
+     * meet. Returns the start and end of the snake as {x, y, u, v},
+     * relative to aLo and bLo, or null if F's work limit is reached. */
+    private static int[] middleSnake(long[] a, int aLo, int aHi, long[] b, int bLo, int bHi,
+                                     Frontier f) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        f.ensure(0);
+        f.forward_[f.off_ + 1] = 0;
+        f.backward_[f.off_ + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d++) {
+            if (f.work_ > f.limit_) {
+                return null;
+            }
+            f.ensure(d);
+            int[] forward = f.forward_;
+            int[] backward = f.backward_;
+            int off = f.off_;
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[off + k - 1] < forward[off + k + 1])
+                        ? forward[off + k + 1] : forward[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[off + k] = x;
+                f.work_ += 1 + x - x0;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1 && x + backward[off + r] >= n) {
+                    return new int[]{x0, y0, x, y};
+                }
+            }
+            for (int r = -d; r <= d; r += 2) {
+                int x = r == -d || (r != d && backward[off + r - 1] < backward[off + r + 1])
+                        ? backward[off + r + 1] : backward[off + r - 1] + 1;
+                int y = x - r;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[off + r] = x;
+                f.work_ += 1 + x - x0;
+                int k = delta - r;
+                if (!odd && k >= -d && k <= d && forward[off + k] + x >= n) {
+                    return new int[]{n - x, m - y, n - x0, m - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
@@ -1,48 +1,77 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
 import static gitlet.Utils.*;
 
-public abstract class GitletObject<Data extends ToBytesConvertible & Serializable> {
-    // Static
-    private static final File OBJECTS_FOLDER = join(Repository.GITLET_DIR, "objects");
-
+public abstract class GitletObject<Data extends ToBytesConvertible> {
     /**
      * Read an existing GitletObject from filesystem
      *
-     * @param sha1 SHA-1 hash hex-string
+     * @param sha1    SHA-1 hash hex-string
+     * @param type    Codec tag of the object type
+     * @param decoder decoder of the binary encoding of Data
      */
-    protected GitletObject(String sha1) {
-        // Read data from filesystem
-        File f = join(OBJECTS_FOLDER, sha1);
-        if (!f.exists()) {
-            throw new GitletException("object" + sha1 + " not found in filesystem");
+    protected GitletObject(String sha1, byte type, Codec.Decoder<Data> decoder) {
+        // Decode data from object store, hashing it on the way if required
+        MessageDigest md = VerifyPolicy.shouldVerify(sha1) ? sha1Digest() : null;
+        CountingInputStream counter = new CountingInputStream(ObjectStore.open(sha1));
+        InputStream stream = md == null ? counter : new DigestInputStream(counter, md);
+        try (DataInputStream in = new DataInputStream(stream)) {
+            long length = ObjectStore.readObjectHeader(in, type);
+            data_ = decoder.read(in);
+            if (in.read() != -1) {
+                throw new GitletException("object " + sha1 + " has trailing data");
+            }
+            if (counter.count_ != ObjectStore.OBJECT_HEADER_LENGTH + length) {
+                throw new GitletException("object " + sha1 + " does not match its length");
+            }
+        } catch (IOException e) {
+            throw new GitletException("corrupt object " + sha1 + ": " + e.getMessage());
         }
-        data_ = readObject(f);
 
         // Validate SHA-1
-        computeSha1();
-        if (!sha1_.equals(sha1)) {
-            throw new GitletException("object SHA-1 mismatch");
+        if (md != null) {
+            if (!bytesToHex(md.digest(), 0, HASH_LENGTH).equals(sha1)) {
+                throw new GitletException("object SHA-1 mismatch");
+            }
+            VerifyPolicy.markVerified(sha1);
         }
+        sha1_ = sha1;
+        type_ = type;
+        weight_ = counter.count_;
     }
 
-    protected GitletObject() {
+    /**
+     * Create a GitletObject not yet saved
+     *
+     * @param type Codec tag of the object type
+     */
+    protected GitletObject(byte type) {
         sha1_ = null;
+        type_ = type;
     }
 
     public void save() {
-        computeSha1();
-        File f = join(OBJECTS_FOLDER, sha1_);
-        if (f.exists()) {
-            // throw new GitletException("object present in filesystem");
-            // Fail silently
-            return;
-        }
-        writeObject(f, data_);
+        byte[] bytes = encode();
+        sha1_ = sha1((Object) bytes);
+        // Fails silently if object present in object store
+        ObjectStore.write(sha1_, bytes);
+        weight_ = bytes.length;
+        ObjectCache.put(this);
+    }
+
+    /**
+     * @return length of the encoding, as weighed by ObjectCache
+     */
+    public long weight() {
+        return weight_;
     }
 
     public String getSHA1Hash() {
@@ -51,19 +80,51 @@ public abstract class GitletObject<Data extends ToBytesConvertible & Serializabl
     }
 
     // Private / Protected members
-    /* serializable class representing all data stored in filesystem */
+    /* data stored in filesystem, in its binary encoding */
     protected Data data_;
     private String sha1_;
+    private final byte type_;
+    private long weight_;
+
+    /* Counts the bytes read through it */
+    private static class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count_++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count_ += n;
+            }
+            return n;
+        }
+
+        private long count_;
+    }
 
     private void computeSha1() {
         if (sha1_ == null) {
-            sha1_ = sha1((Object) data_.toByteArray());
+            sha1_ = sha1((Object) encode());
         }
-        // Debug
-        /*
-        System.out.println(this.getClass().toString() + ":");
-        System.out.println("byte[]: " + data_.toByteArray());
-        System.out.println("sha1: " + sha1_);
-        */
+    }
+
+    /* the hashed encoding: type-and-length header, then Data */
+    private byte[] encode() {
+        byte[] data = data_.toByteArray();
+        byte[] header = ObjectStore.objectHeader(type_, data.length);
+        byte[] result = Arrays.copyOf(header, header.length + data.length);
+        System.arraycopy(data, 0, result, header.length, data.length);
+        return result;
     }
 }
@@ -1,20 +1,22 @@
 package gitlet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.Serializable;
-import java.util.TreeMap;
+import java.io.IOException;
 
 import static gitlet.Utils.*;
 
-public class Head implements Serializable {
+public class Head implements ToBytesConvertible {
     // Static
     public static final File HEAD = join(Repository.GITLET_DIR, "head");
+    private static final int VERSION = 1;
 
     public static Head fromFilesystem() {
-        if (!HEAD.exists()) {
+        if (!Transaction.exists(HEAD)) {
             throw new GitletException("head file missing");
         }
-        return readObject(HEAD, Head.class);
+        return Codec.decode(Transaction.read(HEAD), Head::read);
     }
 
     public static Head createEmpty() {
@@ -23,7 +25,22 @@ public class Head implements Serializable {
 
     // Public methods
     public void save() {
-        writeObject(HEAD, this);
+        Transaction.write(HEAD, toByteArray());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Codec.writeHeader(out, Codec.TAG_HEAD, VERSION);
+        Codec.writeString(out, branch_);
+        Codec.writeHash(out, hash_);
+    }
+
+    public static Head read(DataInput in) throws IOException {
+        Codec.readHeader(in, Codec.TAG_HEAD, VERSION);
+        Head h = new Head();
+        h.branch_ = Codec.readString(in);
+        h.hash_ = Codec.readHash(in);
+        return h;
     }
 
     public String getBranch() {
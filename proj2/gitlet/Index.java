@@ -1,43 +1,108 @@
 package gitlet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static gitlet.Utils.*;
-import static gitlet.Utils.readObject;
 
-public class Index {
+public class Index implements ToBytesConvertible {
     // Static
     public static final File INDEX = join(Repository.GITLET_DIR, "index");
+    private static final int VERSION = 3;
+
+    /**
+     * File metadata recorded when a file's content was known to match its
+     * staged blob, as in git's index. A file whose metadata is unchanged
+     * need not be hashed again.
+     */
+    public static class Stat {
+        /**
+         * Read current metadata of a file
+         *
+         * @return Stat, or null if the file is missing
+         */
+        public static Stat of(File f) {
+            Path p = f.toPath();
+            try {
+                try {
+                    Map<String, Object> a = Files.readAttributes(p, "unix:size,lastModifiedTime,ino");
+                    return new Stat((Long) a.get("size"),
+                            ((FileTime) a.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                            (Long) a.get("ino"));
+                } catch (UnsupportedOperationException e) {
+                    BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                    return new Stat(a.size(), a.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0);
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        Stat(long size, long mtime, long inode) {
+            size_ = size;
+            mtime_ = mtime;
+            inode_ = inode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stat)) {
+                return false;
+            }
+            Stat other = (Stat) o;
+            return size_ == other.size_ && mtime_ == other.mtime_ && inode_ == other.inode_;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size_) ^ Long.hashCode(mtime_) ^ Long.hashCode(inode_);
+        }
+
+        private final long size_;
+        /* nanoseconds since the epoch */
+        private final long mtime_;
+        private final long inode_;
+    }
 
     public static Index fromFilesystem() {
-        if (!INDEX.exists()) {
+        if (!Transaction.exists(INDEX)) {
             throw new GitletException("index file missing");
         }
-        Index i = new Index();
-        i.indexMap_ = readObject(INDEX);
+        Index i = Codec.decode(Transaction.read(INDEX), Index::read);
+        i.savedTime_ = Transaction.lastModified(INDEX);
         return i;
     }
 
     public static Index createEmpty() {
         Index i = new Index();
         i.indexMap_ = new TreeMap<>();
+        i.statMap_ = new TreeMap<>();
+        i.treeCache_ = new TreeMap<>();
         return i;
     }
 
     public static Index fromCommit(Commit c) {
-        var fileSet = c.entrySet();
         Index i = createEmpty();
-        for (var e : fileSet) {
-            i.indexMap_.put(e.getKey(), e.getValue());
-        }
+        // Every directory of the commit starts out with a known tree
+        Tree.flatten(c.getTree(), "", i.indexMap_, i.treeCache_);
         return i;
     }
 
     // Constructor
     private Index() {
+        savedTime_ = Long.MIN_VALUE;
     }
 
     // Public methods
@@ -46,6 +111,10 @@ public class Index {
     }
 
     public boolean changed(Commit c) {
+        String root = treeCache_.get("");
+        if (root != null) {
+            return !root.equals(c.getTree());
+        }
         if (indexMap_.size() != c.numFiles()) {
             return true;
         }
@@ -59,19 +128,104 @@ public class Index {
     }
 
     public void save() {
-        writeObject(INDEX, indexMap_);
+        Transaction.write(INDEX, toByteArray());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Codec.writeHeader(out, Codec.TAG_INDEX, VERSION);
+        Codec.writeMap(out, indexMap_, Codec::writeHash);
+        Codec.writeMap(out, statMap_, (o, st) -> {
+            o.writeLong(st.size_);
+            o.writeLong(st.mtime_);
+            o.writeLong(st.inode_);
+        });
+        Codec.writeMap(out, treeCache_, Codec::writeHash);
+    }
+
+    public static Index read(DataInput in) throws IOException {
+        Codec.readHeader(in, Codec.TAG_INDEX, VERSION);
+        Index i = new Index();
+        i.indexMap_ = Codec.readMap(in, Codec::readHash);
+        i.statMap_ = Codec.readMap(in, o -> new Stat(o.readLong(), o.readLong(), o.readLong()));
+        i.treeCache_ = Codec.readMap(in, Codec::readHash);
+        return i;
     }
 
     public boolean hasFile(String filename) {
         return indexMap_.containsKey(filename);
     }
 
+    /**
+     * Stage a file, unstaging what it replaces, as git does: a file at one
+     * of its directories, or the files under it if it was a directory
+     */
     public void putFile(String filename, String blobHash) {
+        for (int i = filename.indexOf('/'); i >= 0; i = filename.indexOf('/', i + 1)) {
+            if (hasFile(filename.substring(0, i))) {
+                removeFile(filename.substring(0, i));
+            }
+        }
+        // '0' sorts right after '/'
+        for (String path : List.copyOf(indexMap_.subMap(filename + "/", filename + "0").keySet())) {
+            removeFile(path);
+        }
         indexMap_.put(filename, blobHash);
+        statMap_.remove(filename);
+        invalidateTrees(filename);
     }
 
     public void removeFile(String filename) {
         indexMap_.remove(filename);
+        statMap_.remove(filename);
+        invalidateTrees(filename);
+    }
+
+    /**
+     * Save a tree for every directory of the staged files, reusing the trees
+     * of directories that did not change since they were last written. Only
+     * the directories on the paths of changed files are visited.
+     *
+     * @return SHA-1 hash of the root tree
+     */
+    public String writeTree() {
+        return writeTree("");
+    }
+
+    /**
+     * Record that a staged file in current working directory matches its
+     * blob, if the file still has the metadata it had when it was hashed
+     *
+     * @param filename name of staged file
+     * @param before   Stat of the file taken before hashing it
+     */
+    public void recordStat(String filename, Stat before) {
+        if (before != null && indexMap_.containsKey(filename)
+                && before.equals(Stat.of(join(Repository.CWD, filename)))) {
+            statMap_.put(filename, before);
+        }
+    }
+
+    /**
+     * Check whether a staged file is known to match its blob without
+     * hashing it. A file modified no earlier than the index was last
+     * saved is "racy": it may have changed again within the same
+     * timestamp tick, so it is never trusted.
+     *
+     * @param filename name of staged file
+     * @return true if the file certainly matches its staged blob
+     */
+    public boolean statMatches(String filename) {
+        Stat recorded = statMap_.get(filename);
+        return recorded != null && recorded.mtime_ < savedTime_
+                && recorded.equals(Stat.of(join(Repository.CWD, filename)));
+    }
+
+    /**
+     * @return stat data recorded for a staged file, or null
+     */
+    public Stat getStat(String filename) {
+        return statMap_.get(filename);
     }
 
     public String getFile(String filename) {
@@ -86,6 +240,54 @@ public class Index {
         return indexMap_.keySet();
     }
 
+    /**
+     * @return hashes of the stored trees cached for staged directories
+     */
+    public Collection<String> cachedTrees() {
+        return treeCache_.values();
+    }
+
     // Private members
     private TreeMap<String, String> indexMap_;
+    private TreeMap<String, Stat> statMap_;
+    /* maps directory prefix ("" or ending in '/') to the hash of its tree,
+     * for directories whose staged files did not change since */
+    private TreeMap<String, String> treeCache_;
+    /* modification time of the index file when it was read, in nanoseconds */
+    private long savedTime_;
+
+    /* Forget the trees of every directory containing a path */
+    private void invalidateTrees(String path) {
+        treeCache_.remove("");
+        for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+            treeCache_.remove(path.substring(0, i + 1));
+        }
+    }
+
+    private String writeTree(String prefix) {
+        String cached = treeCache_.get(prefix);
+        if (cached != null) {
+            return cached;
+        }
+        TreeMap<String, Tree.Entry> entries = new TreeMap<>();
+        // Paths under a prefix are contiguous in the sorted index
+        String path = indexMap_.ceilingKey(prefix);
+        while (path != null && path.startsWith(prefix)) {
+            String rest = path.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash < 0) {
+                entries.put(rest, Tree.Entry.blob(indexMap_.get(path)));
+                path = indexMap_.higherKey(path);
+            } else {
+                String dir = prefix + rest.substring(0, slash);
+                entries.put(rest.substring(0, slash), Tree.Entry.tree(writeTree(dir + "/")));
+                // '0' sorts right after '/': skip the rest of the subdirectory
+                path = indexMap_.ceilingKey(dir + "0");
+            }
+        }
+        Tree t = Tree.fromEntries(entries);
+        t.save();
+        treeCache_.put(prefix, t.getSHA1Hash());
+        return t.getSHA1Hash();
+    }
 }
@@ -1,37 +1,95 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
  * @author John Doe
  */
 public class Main {
+    /* Commands that only read the repository, run under the shared lock */
+    private static final Set<String> READERS =
+            Set.of("log", "global-log", "find", "status", "diff", "fsck");
+    /* Commands that take the lock themselves: init creates the repository
+     * and add writes its objects first */
+    private static final Set<String> UNLOCKED = Set.of("init", "add");
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * <p>
+     * java gitlet.Main daemon serves commands from a long-running process,
+     * see Daemon.
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+        if (Boolean.getBoolean(ObjectCache.STATS_PROPERTY)) {
+            // Report once the process ends, which for the daemon is after
+            // many commands
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> System.err.println(ObjectCache.summary())));
+        }
+        if (args.length > 0 && args[0].equals("daemon")) {
+            Daemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        execute(args);
+    }
+
+    /**
+     * Run one command the way main does: an error that ends the command is
+     * printed to System.out, and updates to head, branches and index are
+     * applied together, only if the command completes
+     *
+     * @param args command and operands
+     */
+    public static void execute(String[] args) {
+        try {
+            if (args.length == 0) {
+                throw new GitletException("Please enter a command.");
+            }
+            // A repository of the first gitlet is converted before anything
+            // reads it
+            if (!args[0].equals("init") && Repository.repoExists() && Migration.isNeeded()) {
+                RepoLock.acquire(false);
+                Migration.run();
+            }
+            if (!UNLOCKED.contains(args[0]) && Repository.repoExists()) {
+                RepoLock.acquire(READERS.contains(args[0]));
+            }
+            Transaction.begin();
+            run(args);
+            Transaction.commit();
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            Transaction.abort();
+            RepoLock.release();
         }
+    }
+
+    /**
+     * Execute one gitlet command
+     *
+     * @param args command and operands
+     */
+    public static void run(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
                 if (Repository.repoExists()) {
-                    System.out.println("A Gitlet version-control system already exists in the " +
-                            "current directory.");
-                    System.exit(0);
+                    throw new GitletException("A Gitlet version-control system already "
+                            + "exists in the current directory.");
                 }
                 Repository.init();
                 break;
             case "add":
                 checkRepoExistence();
-                if (args.length != 2) {
+                if (args.length < 2) {
                     errorOperandIncorrect();
                 }
-                Repository.add(args[1]);
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 checkRepoExistence();
@@ -39,8 +97,7 @@ public class Main {
                     errorOperandIncorrect();
                 }
                 if (args[1].isEmpty()) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
+                    throw new GitletException("Please enter a commit message.");
                 }
                 Repository.commit(args[1]);
                 break;
@@ -144,21 +201,51 @@ public class Main {
                 }
                 Repository.merge(args[1]);
                 break;
+            case "repack":
+                checkRepoExistence();
+                if (args.length != 1) {
+                    errorOperandIncorrect();
+                }
+                Repository.repack();
+                break;
+            case "diff":
+                checkRepoExistence();
+                if (args.length == 1) {
+                    Repository.diffWorkingTree();
+                } else if (args.length == 2 && args[1].equals("--cached")) {
+                    Repository.diffCached();
+                } else if (args.length == 3) {
+                    Repository.diffCommits(args[1], args[2]);
+                } else {
+                    errorOperandIncorrect();
+                }
+                break;
+            case "gc":
+                checkRepoExistence();
+                if (args.length > 2 || (args.length == 2 && !args[1].equals("--prune=now"))) {
+                    errorOperandIncorrect();
+                }
+                Repository.gc(args.length == 2);
+                break;
+            case "fsck":
+                checkRepoExistence();
+                if (args.length != 1) {
+                    errorOperandIncorrect();
+                }
+                Repository.fsck();
+                break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw new GitletException("No command with that name exists.");
         }
     }
 
     public static void checkRepoExistence() {
         if (!Repository.repoExists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException("Not in an initialized Gitlet directory.");
         }
     }
 
     public static void errorOperandIncorrect() {
-        System.out.println("Incorrect operands.");
-        System.exit(0);
+        throw new GitletException("Incorrect operands.");
     }
 }
@@ -0,0 +1,58 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Times the line-based three-way merge of large generated files. Invoke as
+ * java gitlet.MergeBenchmark [lines]
+ * <p>
+ * Builds a base text of 200000 lines (by default) and, for a growing share
+ * of changed lines, two versions that each change different lines of it,
+ * then reports the best time of Diff.merge3 over a few rounds. The first
+ * row changes one line on each side.
+ */
+public class MergeBenchmark {
+    private static final int ROUNDS = 5;
+    /* Percentages of lines changed on each side */
+    private static final double[] CHANGED = {0, 0.1, 1, 5};
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        byte[] base = generate(n, 0, -1, 0);
+
+        System.out.printf("%8s %12s %10s %12s\n", "lines", "changed (%)", "conflict", "time (ms)");
+        System.out.printf("----------------------------------------------\n");
+        for (double percent : CHANGED) {
+            int every = percent == 0 ? n : (int) (100 / percent);
+            byte[] ours = generate(n, every, 0, 1);
+            byte[] theirs = generate(n, every, every / 2, 2);
+            Diff.Merge m = null;
+            double best = Double.MAX_VALUE;
+            // One extra round warms up the JIT and is not counted
+            for (int r = 0; r <= ROUNDS; r++) {
+                long start = System.nanoTime();
+                m = Diff.merge3(base, ours, theirs);
+                if (r > 0) {
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                }
+            }
+            System.out.printf("%8d %12.1f %10b %12.1f\n", n, percent, m.conflict_, best);
+        }
+    }
+
+    /* N lines of generated text where every EVERY lines, starting at line
+     * FIRST, the line is changed in version VERSION */
+    private static byte[] generate(int n, int every, int first, int version) {
+        Random random = new Random(n);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < n; i++) {
+            boolean changed = first >= 0 && i >= first && (i - first) % every == 0;
+            String line = "    value_" + i + " = " + random.nextInt(1000)
+                    + (changed ? "; // changed in version " + version : ";") + "\n";
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
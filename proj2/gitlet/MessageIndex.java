@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Inverted index from the words of commit messages to the commits of the
+ * commit graph, so that find does not have to read every message.
+ * <p>
+ * message-index is a header (magic "GMIX", version, the number of graph
+ * records indexed, the hash of the last of them and the number of words),
+ * a table of fixed-width slots, one per word in ascending order of its
+ * UTF-8 bytes, each the offset of the word and its number of postings, and
+ * then per word its length, its bytes and the ascending record numbers of
+ * the commits using it. The file is mapped and its table binary searched,
+ * so a lookup reads only the slots it visits and one list of postings.
+ * <p>
+ * Commits added to the graph since the file was written are indexed in
+ * memory when the index is loaded, and the file is rewritten once there
+ * are enough of them. The file is derived from the graph and rebuilt if
+ * unreadable.
+ */
+public class MessageIndex {
+    // Static
+    public static final File INDEX_FILE = join(Repository.GITLET_DIR, "message-index");
+
+    private static final int MAGIC = 0x474d4958; // "GMIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 16 + HASH_LENGTH;
+    private static final int SLOT_LENGTH = 8;
+    /* Commits indexed in memory only before the file is rewritten */
+    private static final int MAX_UNSAVED = 256;
+
+    /**
+     * Load the index of a commit graph, bringing it up to date
+     *
+     * @param graph commit graph
+     * @return MessageIndex
+     */
+    public static MessageIndex fromFilesystem(CommitGraph graph) {
+        MessageIndex m = new MessageIndex(graph);
+        if (INDEX_FILE.isFile()) {
+            m.open();
+        }
+        m.indexFrom(m.saved_);
+        return m;
+    }
+
+    /**
+     * Split a message into lower-case words of letters and digits
+     */
+    public static Set<String> words(String msg) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String w : msg.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty()) {
+                result.add(w);
+            }
+        }
+        return result;
+    }
+
+    // Constructor
+    private MessageIndex(CommitGraph graph) {
+        graph_ = graph;
+        added_ = new HashMap<>();
+    }
+
+    // Public methods
+
+    /**
+     * Find the commits whose message is exactly MSG. Only commits that
+     * have the rarest word of MSG are compared with it.
+     *
+     * @param msg commit message
+     * @return record numbers in the commit graph, in ascending order
+     */
+    public List<Integer> find(String msg) {
+        List<Integer> result = new ArrayList<>();
+        Set<String> words = words(msg);
+        if (words.isEmpty()) {
+            for (int i = 0; i < graph_.numCommits(); i++) {
+                if (graph_.message(i).equals(msg)) {
+                    result.add(i);
+                }
+            }
+            return result;
+        }
+        List<Integer> candidates;
+        try {
+            String rarest = null;
+            int fewest = Integer.MAX_VALUE;
+            for (String word : words) {
+                int n = added_.getOrDefault(word, List.of()).size();
+                int slot = slot(word);
+                if (slot != -1) {
+                    n += file_.getInt(slotAt(slot) + 4);
+                }
+                if (n < fewest) {
+                    rarest = word;
+                    fewest = n;
+                }
+            }
+            candidates = postings(rarest);
+        } catch (GitletException e) {
+            // The file is corrupt: index every commit in memory instead
+            discard();
+            return find(msg);
+        }
+        for (int i : candidates) {
+            if (graph_.message(i).equals(msg)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rewrite the file with the commits indexed in memory, once there are
+     * enough of them or the file needs rebuilding, as part of the open
+     * transaction
+     */
+    public void save() {
+        if (indexed_ == saved_ || (file_ != null && indexed_ - saved_ < MAX_UNSAVED)) {
+            return;
+        }
+        Map<byte[], List<Integer>> postings;
+        try {
+            postings = allPostings();
+        } catch (GitletException e) {
+            discard();
+            postings = allPostings();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(indexed_);
+            out.write(hexToBytes(graph_.hash(indexed_ - 1)));
+            out.writeInt(postings.size());
+            int offset = HEADER_LENGTH + postings.size() * SLOT_LENGTH;
+            for (var e : postings.entrySet()) {
+                out.writeInt(offset);
+                out.writeInt(e.getValue().size());
+                offset += 4 + e.getKey().length + 4 * e.getValue().size();
+            }
+            for (var e : postings.entrySet()) {
+                out.writeInt(e.getKey().length);
+                out.write(e.getKey());
+                for (int record : e.getValue()) {
+                    out.writeInt(record);
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to write message index");
+        }
+        Transaction.write(INDEX_FILE, bytes.toByteArray());
+        file_ = ByteBuffer.wrap(bytes.toByteArray());
+        words_ = postings.size();
+        saved_ = indexed_;
+        added_.clear();
+    }
+
+    // Private members
+    private final CommitGraph graph_;
+    /* the mapped file, or null if there is no valid one */
+    private ByteBuffer file_;
+    /* number of words in the file */
+    private int words_;
+    /* number of graph records indexed in the file */
+    private int saved_;
+    /* number of graph records indexed */
+    private int indexed_;
+    /* maps word to the records after those of the file using it, ascending */
+    private final Map<String, List<Integer>> added_;
+
+    /* Map the file if its header is valid for the graph */
+    private void open() {
+        ByteBuffer b;
+        try (FileChannel ch = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+            b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException e) {
+            return;
+        }
+        if (b.capacity() < HEADER_LENGTH || b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+            return;
+        }
+        int indexed = b.getInt(8);
+        int words = b.getInt(12 + HASH_LENGTH);
+        if (indexed <= 0 || indexed > graph_.numCommits() || words < 0
+                || words > (b.capacity() - HEADER_LENGTH) / SLOT_LENGTH) {
+            return;
+        }
+        // The graph may have been rebuilt with other record numbers
+        byte[] last = new byte[HASH_LENGTH];
+        b.get(12, last);
+        if (!bytesToHex(last, 0, HASH_LENGTH).equals(graph_.hash(indexed - 1))) {
+            return;
+        }
+        file_ = b;
+        words_ = words;
+        saved_ = indexed;
+    }
+
+    /* Index the commits of the graph from record START on in memory */
+    private void indexFrom(int start) {
+        for (int i = start; i < graph_.numCommits(); i++) {
+            for (String word : words(graph_.message(i))) {
+                added_.computeIfAbsent(word, w -> new ArrayList<>()).add(i);
+            }
+        }
+        indexed_ = graph_.numCommits();
+    }
+
+    /* Drop a corrupt file and index every commit in memory */
+    private void discard() {
+        file_ = null;
+        words_ = 0;
+        saved_ = 0;
+        added_.clear();
+        indexFrom(0);
+    }
+
+    private static int slotAt(int slot) {
+        return HEADER_LENGTH + slot * SLOT_LENGTH;
+    }
+
+    /* slot of a word in the file, or -1 if it has none */
+    private int slot(String word) {
+        if (file_ == null) {
+            return -1;
+        }
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = words_ - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(slotWord(mid), key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /* word of a slot, once the slot is checked to lie within the file */
+    private byte[] slotWord(int slot) {
+        int offset = file_.getInt(slotAt(slot));
+        int count = file_.getInt(slotAt(slot) + 4);
+        if (offset < slotAt(words_) || offset > file_.capacity() - 4 || count < 0) {
+            throw new GitletException("bad message index");
+        }
+        int length = file_.getInt(offset);
+        if (length < 0 || offset + 4L + length + 4L * count > file_.capacity()) {
+            throw new GitletException("bad message index");
+        }
+        byte[] word = new byte[length];
+        file_.get(offset + 4, word);
+        return word;
+    }
+
+    /* records of the commits using a word, ascending */
+    private List<Integer> postings(String word) {
+        List<Integer> result = new ArrayList<>();
+        int slot = slot(word);
+        if (slot != -1) {
+            addFilePostings(slot, result);
+        }
+        result.addAll(added_.getOrDefault(word, List.of()));
+        return result;
+    }
+
+    private void addFilePostings(int slot, List<Integer> result) {
+        int at = file_.getInt(slotAt(slot)) + 4 + slotWord(slot).length;
+        int previous = -1;
+        for (int n = file_.getInt(slotAt(slot) + 4); n > 0; n--, at += 4) {
+            int record = file_.getInt(at);
+            if (record <= previous || record >= saved_) {
+                throw new GitletException("bad message index");
+            }
+            result.add(record);
+            previous = record;
+        }
+    }
+
+    /* every word of the file and in memory with its records, in file order */
+    private Map<byte[], List<Integer>> allPostings() {
+        Map<byte[], List<Integer>> result = new TreeMap<>(Arrays::compareUnsigned);
+        for (int slot = 0; slot < words_; slot++) {
+            List<Integer> records = new ArrayList<>();
+            addFilePostings(slot, records);
+            result.put(slotWord(slot), records);
+        }
+        for (var e : added_.entrySet()) {
+            result.computeIfAbsent(e.getKey().getBytes(StandardCharsets.UTF_8),
+                    w -> new ArrayList<>()).addAll(e.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Converts a repository written by the first version of gitlet, which
+ * stored head, branches, index and every object with Java serialization,
+ * to the binary encoding of Codec.
+ * <p>
+ * Objects are now hashed over their new encoding, so every blob and
+ * commit gets a new SHA-1 hash, and head, branches and index are rewritten
+ * to match. The new objects and refs are written first and the old object
+ * files deleted only once the refs are durable. The names of the old
+ * objects are committed along with the refs, so that if the deletion is
+ * cut short, the next command finishes it.
+ */
+public class Migration {
+    // Static
+    /* Names of the old objects left to delete once the refs are converted */
+    public static final File OLD_OBJECTS = join(Repository.GITLET_DIR, "old-objects");
+
+    /* First bytes of a Java serialization stream */
+    private static final int STREAM_MAGIC = 0xACED;
+
+    /* Classes of the first version, by the names they were serialized under */
+    private static final Map<String, Class<?>> OLD_CLASSES = Map.of(
+            "gitlet.Head", OldHead.class,
+            "gitlet.Branches$BranchInfo", OldBranchInfo.class,
+            "gitlet.Commit$Data", OldCommit.class,
+            "gitlet.Blob$Data", OldBlob.class);
+    /* Every other class the first version serialized */
+    private static final Set<String> LIBRARY_CLASSES =
+            Set.of("java.util.TreeMap", "java.time.Ser", "java.time.Instant", "java.lang.String",
+                    "[B");
+
+    /**
+     * @return whether the repository in the current directory is in the
+     * format of the first version of gitlet, or still holds objects of it
+     */
+    public static boolean isNeeded() {
+        return isSerialized(Head.HEAD) || OLD_OBJECTS.exists();
+    }
+
+    /**
+     * Convert the repository, if no other process did while this one waited
+     * for the lock, then delete the old objects. Run under the exclusive
+     * repository lock.
+     */
+    public static void run() {
+        if (isSerialized(Head.HEAD)) {
+            convert();
+        }
+        if (!OLD_OBJECTS.exists()) {
+            return;
+        }
+        for (String name : readContentsAsString(OLD_OBJECTS).split("\n")) {
+            File f = join(Repository.OBJECTS_FOLDER, name);
+            // Only the old object of that name, never a new one
+            if (!name.isEmpty() && isSerialized(f)) {
+                f.delete();
+            }
+        }
+        OLD_OBJECTS.delete();
+    }
+
+    // Private members
+
+    private static void convert() {
+        OldHead oldHead = readOld(Head.HEAD, OldHead.class);
+        TreeMap<?, ?> oldBranches = readOld(Branches.BRANCHES, TreeMap.class);
+        TreeMap<?, ?> oldIndex = readOld(Index.INDEX, TreeMap.class);
+
+        Transaction.begin();
+        List<String> oldObjects = new ArrayList<>();
+        Map<String, String> newHashes = new HashMap<>();
+        Map<String, OldCommit> commits = new HashMap<>();
+        for (String name : plainFilenamesIn(Repository.OBJECTS_FOLDER)) {
+            File f = join(Repository.OBJECTS_FOLDER, name);
+            // Skip objects already converted by an attempt that failed
+            if (name.length() != 2 * HASH_LENGTH || !isSerialized(f)) {
+                continue;
+            }
+            oldObjects.add(name);
+            Object o = readOld(f, Object.class);
+            if (o instanceof OldBlob) {
+                // Blobs are converted right away, so that only one is in memory
+                OldBlob b = (OldBlob) o;
+                checkHash(name, b.filename_, b.content_);
+                Blob blob = Blob.fromContent(b.filename_, b.content_);
+                blob.save();
+                newHashes.put(name, blob.getSHA1Hash());
+            } else if (o instanceof OldCommit) {
+                OldCommit c = (OldCommit) o;
+                checkHash(name, c.hashedParts().toArray());
+                commits.put(name, c);
+            } else {
+                throw new GitletException("object " + name + " is of unknown type");
+            }
+        }
+        for (String name : commits.keySet()) {
+            convertCommit(name, commits, newHashes);
+        }
+
+        Head head = Head.createEmpty();
+        head.set(oldHead.branch_, newHash(oldHead.hash_, newHashes));
+        head.save();
+        Branches branches = Branches.createEmpty();
+        for (var e : oldBranches.entrySet()) {
+            String tip = ((OldBranchInfo) e.getValue()).head_;
+            branches.createBranch((String) e.getKey(), newHash(tip, newHashes));
+        }
+        branches.save();
+        Index index = Index.createEmpty();
+        for (var e : oldIndex.entrySet()) {
+            index.putFile((String) e.getKey(), newHash((String) e.getValue(), newHashes));
+        }
+        index.save();
+        Transaction.write(OLD_OBJECTS,
+                String.join("\n", oldObjects).getBytes(StandardCharsets.UTF_8));
+        Transaction.commit();
+    }
+
+    /* Save the new commit of an old one, after those of its parents */
+    private static void convertCommit(String name, Map<String, OldCommit> commits,
+                                      Map<String, String> newHashes) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(name);
+        while (!pending.isEmpty()) {
+            String sha1 = pending.peek();
+            if (newHashes.containsKey(sha1)) {
+                pending.pop();
+                continue;
+            }
+            OldCommit c = commits.get(sha1);
+            if (c == null) {
+                throw new GitletException("missing commit " + sha1);
+            }
+            boolean parentsDone = true;
+            for (String p : new String[]{c.parent_, c.altParent_}) {
+                if (p != null && !newHashes.containsKey(p)) {
+                    pending.push(p);
+                    parentsDone = false;
+                }
+            }
+            if (!parentsDone) {
+                continue;
+            }
+            Index files = Index.createEmpty();
+            for (var e : c.files_.entrySet()) {
+                files.putFile(e.getKey(), newHash(e.getValue(), newHashes));
+            }
+            Commit commit = Commit.fromIndex(files, c.msg_, newHash(c.parent_, newHashes),
+                    newHash(c.altParent_, newHashes), c.timestamp_);
+            commit.save();
+            newHashes.put(sha1, commit.getSHA1Hash());
+            pending.pop();
+        }
+    }
+
+    private static String newHash(String oldHash, Map<String, String> newHashes) {
+        if (oldHash == null) {
+            return null;
+        }
+        String hash = newHashes.get(oldHash);
+        if (hash == null) {
+            throw new GitletException("missing object " + oldHash);
+        }
+        return hash;
+    }
+
+    /* Check an old object against the hash of the parts it was hashed from */
+    private static void checkHash(String sha1, Object... parts) {
+        if (!sha1(parts).equals(sha1)) {
+            throw new GitletException("object SHA-1 mismatch");
+        }
+    }
+
+    private static boolean isSerialized(File f) {
+        try (InputStream in = new FileInputStream(f)) {
+            return ((in.read() << 8) | in.read()) == STREAM_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static <T> T readOld(File f, Class<T> type) {
+        try (ObjectInputStream in = new OldInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            return type.cast(in.readObject());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new GitletException("failed to convert " + f + ": " + e.getMessage());
+        }
+    }
+
+    /* Reads the classes of the first version as the stand-ins below, which
+     * have the same serialized fields, and no classes but those. The
+     * stand-ins are never written, so they need no serialVersionUID. */
+    private static class OldInputStream extends ObjectInputStream {
+        OldInputStream(InputStream in) throws IOException {
+            super(in);
+            setObjectInputFilter(info -> {
+                Class<?> c = info.serialClass();
+                if (c == null) {
+                    return ObjectInputFilter.Status.UNDECIDED;
+                }
+                return OLD_CLASSES.containsValue(c) || LIBRARY_CLASSES.contains(c.getName())
+                        ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+            });
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> old = OLD_CLASSES.get(desc.getName());
+            return old == null ? desc : ObjectStreamClass.lookup(old);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class OldHead implements Serializable {
+        private String branch_;
+        private String hash_;
+    }
+
+    @SuppressWarnings("serial")
+    private static class OldBranchInfo implements Serializable {
+        private String head_;
+    }
+
+    @SuppressWarnings("serial")
+    private static class OldCommit implements Serializable {
+        private Instant timestamp_;
+        private String msg_;
+        private TreeMap<String, String> files_;
+        private String parent_;
+        private String altParent_;
+
+        /* what the first version hashed, in order */
+        List<Object> hashedParts() {
+            List<Object> parts = new ArrayList<>();
+            parts.add(timestamp_.toString());
+            parts.add(msg_);
+            for (var e : files_.entrySet()) {
+                parts.add(e.getKey());
+                parts.add(e.getValue());
+            }
+            if (parent_ != null) {
+                parts.add(parent_);
+            }
+            if (altParent_ != null) {
+                parts.add(altParent_);
+            }
+            return parts;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class OldBlob implements Serializable {
+        private String filename_;
+        private byte[] content_;
+    }
+}
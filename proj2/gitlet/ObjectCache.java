@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+
+/**
+ * Least-recently-used cache of decoded gitlet objects, shared by everything
+ * one gitlet command does. Objects are weighed by the length of their
+ * encoding, and the cache holds at most gitlet.objectCacheSize bytes
+ * (32 MB by default). An object heavier than a quarter of that is never
+ * cached.
+ * <p>
+ * With -Dgitlet.objectCacheStats=true the hit and miss counts are printed
+ * to stderr when the command finishes.
+ */
+public class ObjectCache {
+    // Static
+    public static final String SIZE_PROPERTY = "gitlet.objectCacheSize";
+    public static final String STATS_PROPERTY = "gitlet.objectCacheStats";
+    private static final long DEFAULT_SIZE = 32L * 1024 * 1024;
+
+    private static final long CAPACITY = Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE);
+    /* access-ordered, least recently used first */
+    private static final LinkedHashMap<String, GitletObject<?>> OBJECTS =
+            new LinkedHashMap<>(64, 0.75f, true);
+    private static long weight_;
+    private static long hits_;
+    private static long misses_;
+
+    /**
+     * Look up an object, loading and caching it if it is not cached
+     *
+     * @param sha1   SHA-1 hash hex-string
+     * @param type   expected class of the object
+     * @param loader reads the object from the object store
+     * @return object
+     */
+    public static <T extends GitletObject<?>> T get(String sha1, Class<T> type,
+                                                    Function<String, T> loader) {
+        synchronized (OBJECTS) {
+            GitletObject<?> o = OBJECTS.get(sha1);
+            if (o != null) {
+                if (!type.isInstance(o)) {
+                    throw new GitletException("object " + sha1 + " is not a "
+                            + type.getSimpleName().toLowerCase());
+                }
+                hits_++;
+                return type.cast(o);
+            }
+            misses_++;
+        }
+        T o = loader.apply(sha1);
+        put(o);
+        return o;
+    }
+
+    /**
+     * Cache an object that was just loaded or saved
+     */
+    public static void put(GitletObject<?> o) {
+        long w = o.weight();
+        if (w > CAPACITY / 4) {
+            return;
+        }
+        synchronized (OBJECTS) {
+            GitletObject<?> old = OBJECTS.put(o.getSHA1Hash(), o);
+            if (old != null) {
+                weight_ -= old.weight();
+            }
+            weight_ += w;
+            Iterator<GitletObject<?>> it = OBJECTS.values().iterator();
+            while (weight_ > CAPACITY && it.hasNext()) {
+                weight_ -= it.next().weight();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop every cached object, for a process running many commands once
+     * another process may have deleted objects
+     */
+    public static void clear() {
+        synchronized (OBJECTS) {
+            OBJECTS.clear();
+            weight_ = 0;
+        }
+    }
+
+    public static long hits() {
+        synchronized (OBJECTS) {
+            return hits_;
+        }
+    }
+
+    public static long misses() {
+        synchronized (OBJECTS) {
+            return misses_;
+        }
+    }
+
+    /**
+     * @return one line with the counters and current size of the cache
+     */
+    public static String summary() {
+        synchronized (OBJECTS) {
+            long lookups = hits_ + misses_;
+            return String.format("object cache: %d hits, %d misses (%.1f%% hit rate), "
+                            + "%d objects, %d bytes", hits_, misses_,
+                    lookups == 0 ? 0.0 : 100.0 * hits_ / lookups, OBJECTS.size(), weight_);
+        }
+    }
+}
@@ -0,0 +1,857 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Storage of encoded gitlet objects by SHA-1 hash.
+ * <p>
+ * New objects are written loose, one file per object under the objects
+ * folder. repack() folds all objects into a single PackFile under
+ * objects/pack, which is searched before loose objects on read.
+ * <p>
+ * Objects are kept in a stored form: one flag byte, STORED_RAW or
+ * STORED_DEFLATED, followed by the encoding as is or compressed with
+ * Deflater. Hashes are always of the uncompressed encoding.
+ * <p>
+ * In packs, blobs may also be STORED_DELTA: the flag is followed by the
+ * 20-byte hash of a base object in the same pack and a deflated Delta
+ * that rebuilds the encoding from the encoding of the base.
+ * <p>
+ * Every object encoding starts with a header of its type, the lower-case
+ * Codec tag, and the length of the rest as a long. The header is hashed
+ * with the rest, and lets typeOf() classify an object from its first byte.
+ */
+public class ObjectStore {
+    // Static
+    public static final File OBJECTS_FOLDER = Repository.OBJECTS_FOLDER;
+    public static final File PACK_FOLDER = join(OBJECTS_FOLDER, "pack");
+
+    public static final int STORED_RAW = 0;
+    public static final int STORED_DEFLATED = 1;
+    public static final int STORED_DELTA = 2;
+
+    /* Length of the type-and-length header of an object encoding */
+    public static final int OBJECT_HEADER_LENGTH = 9;
+
+    /* Amount of the start of an object compressed to decide whether the
+     * whole object is worth compressing */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    /* Store raw if the sample does not shrink below this fraction */
+    private static final double MIN_COMPRESSION_RATIO = 0.9;
+
+    /* Maximum length of a chain of deltas in a pack */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /* Number of earlier versions of a file tried as delta base */
+    private static final int DELTA_WINDOW = 10;
+    /* Larger blobs are neither stored as deltas nor used as bases */
+    private static final long MAX_DELTA_SIZE = 4L << 20;
+    /* Bytes of reconstructed delta objects and bases kept in memory */
+    private static final long DELTA_BASE_CACHE_BYTES = 32L << 20;
+
+    /**
+     * Header of an object encoding
+     *
+     * @param tag    Codec tag of the object type
+     * @param length length of the encoding after the header
+     * @return OBJECT_HEADER_LENGTH bytes
+     */
+    public static byte[] objectHeader(byte tag, long length) {
+        return ByteBuffer.allocate(OBJECT_HEADER_LENGTH)
+                .put((byte) Character.toLowerCase(tag)).putLong(length).array();
+    }
+
+    /**
+     * Read and check the header of an object encoding
+     *
+     * @param in  encoding, at its start
+     * @param tag Codec tag of the expected type
+     * @return length of the encoding after the header
+     */
+    public static long readObjectHeader(InputStream in, byte tag) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException("empty object");
+        }
+        if (type != Character.toLowerCase(tag)) {
+            throw new GitletException("expected type '" + (char) tag
+                    + "', found '" + (char) Character.toUpperCase(type) + "'");
+        }
+        long length = new DataInputStream(in).readLong();
+        if (length < 0) {
+            throw new IOException("negative object length");
+        }
+        return length;
+    }
+
+    /**
+     * Find the type of an object by reading the first byte of its encoding
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return Codec tag of the object type
+     */
+    public static byte typeOf(String sha1) {
+        try (InputStream stored = openStored(sha1)) {
+            int type;
+            switch (stored.read()) {
+                case STORED_RAW:
+                    type = stored.read();
+                    break;
+                case STORED_DEFLATED:
+                    type = new InflaterInputStream(stored).read();
+                    break;
+                case STORED_DELTA:
+                    // Deltas are only made between objects of one type
+                    return typeOf(Codec.readHash(new DataInputStream(stored)));
+                default:
+                    throw new GitletException("object " + sha1 + " has unknown storage flag");
+            }
+            if (type < 0) {
+                throw new GitletException("object " + sha1 + " is empty");
+            }
+            return (byte) Character.toUpperCase(type);
+        } catch (IOException e) {
+            throw new GitletException("failed to read object " + sha1);
+        }
+    }
+
+    public static boolean contains(String sha1) {
+        for (PackFile p : packs()) {
+            if (p.contains(sha1)) {
+                return true;
+            }
+        }
+        return join(OBJECTS_FOLDER, sha1).isFile();
+    }
+
+    /**
+     * Open the encoding of an object, packs first. Compressed objects are
+     * inflated as the stream is read.
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return stream of the encoded object
+     */
+    public static InputStream open(String sha1) {
+        InputStream stored = openStored(sha1);
+        try {
+            int flag = stored.read();
+            switch (flag) {
+                case STORED_RAW:
+                    return stored;
+                case STORED_DEFLATED:
+                    return new InflaterInputStream(stored);
+                case STORED_DELTA:
+                    return new ByteArrayInputStream(readDelta(sha1, stored));
+                default:
+                    stored.close();
+                    throw new GitletException("object " + sha1 + " has unknown storage flag");
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to read object " + sha1);
+        }
+    }
+
+    /**
+     * The stored form of an object as a region of a file: a loose object
+     * file or part of a pack. The region starts with the storage flag.
+     */
+    public static class StoredRegion implements Closeable {
+        StoredRegion(FileChannel channel, long start, long length, boolean owned) {
+            channel_ = channel;
+            start_ = start;
+            length_ = length;
+            owned_ = owned;
+        }
+
+        /**
+         * @return STORED_RAW, STORED_DEFLATED or STORED_DELTA
+         */
+        public int flag() throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            if (length_ < 1 || channel_.read(b, start_) != 1) {
+                throw new IOException("empty object");
+            }
+            return b.get(0);
+        }
+
+        /**
+         * Read part of the region
+         *
+         * @param offset offset from the start of the region
+         * @param length number of bytes
+         * @return bytes read
+         */
+        public byte[] read(long offset, int length) throws IOException {
+            if (offset + length > length_) {
+                throw new EOFException("object truncated");
+            }
+            ByteBuffer b = ByteBuffer.allocate(length);
+            while (b.hasRemaining()) {
+                if (channel_.read(b, start_ + offset + b.position()) < 0) {
+                    throw new EOFException("object truncated");
+                }
+            }
+            return b.array();
+        }
+
+        /**
+         * Close the file, unless it is a pack shared with other readers
+         */
+        @Override
+        public void close() throws IOException {
+            if (owned_) {
+                channel_.close();
+            }
+        }
+
+        public final FileChannel channel_;
+        public final long start_;
+        public final long length_;
+        private final boolean owned_;
+    }
+
+    /**
+     * Locate the stored form of an object, for reading it without copying
+     * it onto the heap
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return region to be closed by the caller
+     */
+    public static StoredRegion openRegion(String sha1) {
+        PackFile p = packContaining(sha1);
+        if (p != null) {
+            return p.openRegion(sha1);
+        }
+        try {
+            FileChannel ch = FileChannel.open(join(OBJECTS_FOLDER, sha1).toPath(),
+                    StandardOpenOption.READ);
+            return new StoredRegion(ch, 0, ch.size(), true);
+        } catch (IOException e) {
+            throw new GitletException("object " + sha1 + " not found in filesystem");
+        }
+    }
+
+    /**
+     * Read the whole encoding of an object
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return encoded object
+     */
+    public static byte[] read(String sha1) {
+        try (InputStream in = open(sha1)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new GitletException("failed to read object " + sha1);
+        }
+    }
+
+    /**
+     * Check that an object can be read back and hashes to its name
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return null if the object is intact, otherwise what is wrong with it
+     */
+    public static String verify(String sha1) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = new DigestInputStream(open(sha1), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException | GitletException e) {
+            return "unreadable (" + e.getMessage() + ")";
+        }
+        if (!bytesToHex(md.digest(), 0, HASH_LENGTH).equals(sha1)) {
+            return "SHA-1 mismatch";
+        }
+        return null;
+    }
+
+    /**
+     * Write encoded object as a loose object, unless it is already stored,
+     * in which case it is freshened instead
+     *
+     * @param sha1    SHA-1 hash hex-string
+     * @param content encoded object
+     */
+    public static void write(String sha1, byte[] content) {
+        if (freshen(sha1)) {
+            return;
+        }
+        ObjectWriter out = new ObjectWriter();
+        try {
+            out.write(content);
+            out.finish(sha1);
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * Writes the encoding of one new loose object whose hash is known only
+     * once it has been written. Output is buffered until the first
+     * SAMPLE_SIZE bytes show whether the object compresses.
+     */
+    public static class ObjectWriter extends OutputStream {
+        public ObjectWriter() {
+            try {
+                tmp_ = File.createTempFile("tmp-", null, OBJECTS_FOLDER);
+                file_ = new BufferedOutputStream(new FileOutputStream(tmp_));
+            } catch (IOException e) {
+                throw new GitletException("failed to create temporary object");
+            }
+            sample_ = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out_ == null) {
+                sample_.write(b, off, len);
+                if (sample_.size() >= SAMPLE_SIZE) {
+                    startOutput();
+                }
+            } else {
+                out_.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void write(byte[] b) {
+            try {
+                write(b, 0, b.length);
+            } catch (IOException e) {
+                throw new GitletException("failed to write object");
+            }
+        }
+
+        /**
+         * Complete the object and store it as SHA1, which must be the
+         * hash of everything written
+         */
+        public void finish(String sha1) {
+            try {
+                if (out_ == null) {
+                    startOutput();
+                }
+                out_.close();
+                endDeflater();
+            } catch (IOException e) {
+                throw new GitletException("failed to write object " + sha1);
+            }
+            if (freshen(sha1)) {
+                tmp_.delete();
+                return;
+            }
+            File f = join(OBJECTS_FOLDER, sha1);
+            try {
+                Files.move(tmp_.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new GitletException("failed to store object " + sha1);
+            }
+            Transaction.created(f);
+        }
+
+        /**
+         * Discard an unfinished object; does nothing after finish()
+         */
+        public void abort() {
+            try {
+                (out_ == null ? file_ : out_).close();
+            } catch (IOException ignored) {
+            }
+            endDeflater();
+            tmp_.delete();
+        }
+
+        private final File tmp_;
+        private final OutputStream file_;
+        private ByteArrayOutputStream sample_;
+        private OutputStream out_;
+        private Deflater deflater_;
+
+        private void startOutput() throws IOException {
+            byte[] sample = sample_.toByteArray();
+            sample_ = null;
+            if (worthCompressing(sample)) {
+                file_.write(STORED_DEFLATED);
+                deflater_ = new Deflater();
+                out_ = new DeflaterOutputStream(file_, deflater_);
+            } else {
+                file_.write(STORED_RAW);
+                out_ = file_;
+            }
+            out_.write(sample);
+        }
+
+        private void endDeflater() {
+            if (deflater_ != null) {
+                deflater_.end();
+                deflater_ = null;
+            }
+        }
+    }
+
+    /**
+     * Find objects whose hash starts with a prefix, without listing the store
+     *
+     * @param prefix hex prefix of a SHA-1 hash
+     * @param limit  maximum number of hashes to return
+     * @return matching hashes in ascending order
+     */
+    public static List<String> findPrefix(String prefix, int limit) {
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return new ArrayList<>();
+        }
+        Set<String> result = new TreeSet<>();
+        for (PackFile p : packs()) {
+            result.addAll(p.findPrefix(prefix, limit));
+        }
+        // Loose objects are few between repacks
+        final String loosePrefix = prefix;
+        String[] loose = OBJECTS_FOLDER.list((dir, name) -> name.startsWith(loosePrefix)
+                && new File(dir, name).isFile());
+        if (loose != null) {
+            result.addAll(Arrays.asList(loose));
+        }
+        List<String> list = new ArrayList<>(result);
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    /**
+     * @return hashes of all stored objects, packed and loose, in ascending order
+     */
+    public static List<String> list() {
+        Set<String> result = new TreeSet<>(looseObjects());
+        for (PackFile p : packs()) {
+            result.addAll(p.hashList());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Fold all loose objects and existing packs into one new pack,
+     * then delete what it replaces. Versions of a file are stored as
+     * deltas against each other where that is smaller; other objects are
+     * copied in their stored form, without recompressing them.
+     */
+    public static void repack() {
+        List<String> loose = looseObjects();
+        if (loose.isEmpty() && packs().size() <= 1) {
+            return;
+        }
+        rewrite(list(), loose);
+    }
+
+    /**
+     * Delete the objects that are not reachable, except those younger
+     * than a grace period, which may belong to a command still running.
+     * Reachable objects are repacked into one pack. Unreachable objects in
+     * the grace period stay loose, taking the age of their pack if they
+     * were packed, so that they expire with it.
+     *
+     * @param reachable   hashes of every reachable object
+     * @param gracePeriod age in milliseconds under which objects are kept
+     * @return hashes of the deleted objects
+     */
+    public static List<String> collect(Set<String> reachable, long gracePeriod) {
+        long cutoff = System.currentTimeMillis() - gracePeriod;
+        List<String> keep = new ArrayList<>();
+        List<String> reachableLoose = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        List<String> expiredLoose = new ArrayList<>();
+        for (String sha1 : list()) {
+            PackFile p = packContaining(sha1);
+            File f = join(OBJECTS_FOLDER, sha1);
+            if (reachable.contains(sha1)) {
+                keep.add(sha1);
+                if (f.isFile()) {
+                    reachableLoose.add(sha1);
+                }
+            } else if ((f.isFile() ? f.lastModified() : p.lastModified()) < cutoff) {
+                deleted.add(sha1);
+                if (f.isFile()) {
+                    expiredLoose.add(sha1);
+                }
+            } else if (p != null && !f.isFile()) {
+                unpack(sha1, p.lastModified());
+            }
+        }
+        if (PACK_FOLDER.isDirectory() || !reachableLoose.isEmpty()) {
+            rewrite(keep, reachableLoose);
+        }
+        for (String sha1 : expiredLoose) {
+            join(OBJECTS_FOLDER, sha1).delete();
+        }
+        return deleted;
+    }
+
+    /**
+     * @return bytes taken by loose objects and packs
+     */
+    public static long sizeOnDisk() {
+        long size = 0;
+        for (String sha1 : looseObjects()) {
+            size += join(OBJECTS_FOLDER, sha1).length();
+        }
+        for (PackFile p : packs()) {
+            size += p.sizeOnDisk();
+        }
+        return size;
+    }
+
+    // Private members
+    private static List<PackFile> packs_;
+    /* LRU cache of reconstructed delta objects and bases, by hash */
+    private static final LinkedHashMap<String, byte[]> deltaBases_ =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long deltaBasesBytes_;
+
+    /* Pack OBJECTS into one new pack that replaces every existing pack,
+     * then delete the loose objects LOOSE */
+    private static void rewrite(List<String> objects, List<String> loose) {
+        List<PackFile> oldPacks = packs();
+        if (!PACK_FOLDER.isDirectory() && !PACK_FOLDER.mkdir()) {
+            throw new GitletException("failed to create pack folder");
+        }
+
+        Map<String, byte[]> deltas = findDeltas(objects);
+        PackFile.Writer writer = new PackFile.Writer(PACK_FOLDER);
+        for (String sha1 : objects) {
+            PackFile p = packContaining(sha1);
+            byte[] stored = deltas.get(sha1);
+            if (stored == null && p != null && storedFlag(sha1) == STORED_DELTA) {
+                // Its base may now be stored as a delta of it, or be gone
+                stored = storedForm(read(sha1));
+            }
+            if (stored != null) {
+                writer.add(sha1, new ByteArrayInputStream(stored), stored.length);
+            } else if (p != null) {
+                writer.add(sha1, p.openStored(sha1), p.storedLength(sha1));
+            } else {
+                File f = join(OBJECTS_FOLDER, sha1);
+                writer.add(sha1, openStored(sha1), f.length());
+            }
+        }
+        PackFile pack = writer.finish();
+        // What is deleted below must be safely in the new pack first
+        Transaction.flush();
+
+        for (PackFile p : oldPacks) {
+            if (!p.getName().equals(pack.getName())) {
+                p.delete();
+            }
+        }
+        for (String sha1 : loose) {
+            join(OBJECTS_FOLDER, sha1).delete();
+        }
+        packs_ = new ArrayList<>();
+        packs_.add(pack);
+    }
+
+    /* Make a stored object look new to gc, which keeps objects younger
+     * than its grace period: a command may be about to refer to it. A
+     * loose object is touched, a packed one copied out as a fresh loose
+     * object. Returns false if the object is not stored, or could not be
+     * freshened and should be written again. */
+    private static boolean freshen(String sha1) {
+        File f = join(OBJECTS_FOLDER, sha1);
+        if (f.isFile()) {
+            return f.setLastModified(System.currentTimeMillis());
+        }
+        if (packContaining(sha1) == null) {
+            return false;
+        }
+        try {
+            unpack(sha1, System.currentTimeMillis());
+            return true;
+        } catch (GitletException e) {
+            // The pack was deleted by a repack since it was listed
+            return false;
+        }
+    }
+
+    /* Copy a packed object out as a loose object modified at TIME */
+    private static void unpack(String sha1, long time) {
+        File f = join(OBJECTS_FOLDER, sha1);
+        byte[] stored = storedFlag(sha1) == STORED_DELTA ? storedForm(read(sha1)) : null;
+        try (InputStream in = stored != null ? new ByteArrayInputStream(stored) : openStored(sha1)) {
+            File tmp = File.createTempFile("tmp-", null, OBJECTS_FOLDER);
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            tmp.setLastModified(time);
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new GitletException("failed to unpack object " + sha1);
+        }
+        Transaction.created(f);
+    }
+
+    /* rest of the stored form of a delta, with the flag already read */
+    private static byte[] readDelta(String sha1, InputStream stored) throws IOException {
+        byte[] delta;
+        String base;
+        try (stored) {
+            base = Codec.readHash(new DataInputStream(stored));
+            delta = new InflaterInputStream(stored).readAllBytes();
+        }
+        byte[] result = Delta.apply(readDeltaBase(base), delta);
+        cacheDeltaBase(sha1, result);
+        return result;
+    }
+
+    private static byte[] readDeltaBase(String sha1) {
+        byte[] cached;
+        synchronized (deltaBases_) {
+            cached = deltaBases_.get(sha1);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        byte[] result = read(sha1);
+        cacheDeltaBase(sha1, result);
+        return result;
+    }
+
+    private static void cacheDeltaBase(String sha1, byte[] encoding) {
+        synchronized (deltaBases_) {
+            if (encoding.length > DELTA_BASE_CACHE_BYTES / 4 || deltaBases_.containsKey(sha1)) {
+                return;
+            }
+            deltaBases_.put(sha1, encoding);
+            deltaBasesBytes_ += encoding.length;
+            var it = deltaBases_.values().iterator();
+            while (deltaBasesBytes_ > DELTA_BASE_CACHE_BYTES) {
+                deltaBasesBytes_ -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    /* A version of a file considered as a delta base while packing */
+    private static class DeltaCandidate {
+        DeltaCandidate(String sha1, byte[] encoding, int depth) {
+            sha1_ = sha1;
+            encoding_ = encoding;
+            depth_ = depth;
+        }
+
+        final String sha1_;
+        final byte[] encoding_;
+        final int depth_;
+    }
+
+    /**
+     * Choose blobs to store as deltas against other versions of the same
+     * file. Versions are visited largest first, and each is compared with
+     * the DELTA_WINDOW versions before it.
+     *
+     * @return stored delta form of each chosen blob, by hash
+     */
+    private static Map<String, byte[]> findDeltas(List<String> hashes) {
+        Map<String, List<String>> versions = new HashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
+        for (String sha1 : hashes) {
+            Blob.Info info = Blob.infoFromObjects(sha1);
+            if (info != null && info.length_ <= MAX_DELTA_SIZE) {
+                versions.computeIfAbsent(info.filename_, k -> new ArrayList<>()).add(sha1);
+                sizes.put(sha1, info.length_);
+            }
+        }
+
+        Map<String, byte[]> result = new HashMap<>();
+        for (List<String> group : versions.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            group.sort(Comparator.comparing((String h) -> sizes.get(h)).reversed()
+                    .thenComparing(Comparator.naturalOrder()));
+            ArrayDeque<DeltaCandidate> window = new ArrayDeque<>();
+            for (String sha1 : group) {
+                byte[] target = read(sha1);
+                byte[] best = null;
+                DeltaCandidate bestBase = null;
+                for (DeltaCandidate c : window) {
+                    if (c.depth_ >= MAX_DELTA_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = Delta.create(c.encoding_, target);
+                    if (best == null || delta.length < best.length) {
+                        best = delta;
+                        bestBase = c;
+                    }
+                }
+                int depth = 0;
+                if (best != null) {
+                    byte[] stored = deltaStoredForm(bestBase.sha1_, best);
+                    if (stored.length < storedForm(target).length) {
+                        result.put(sha1, stored);
+                        depth = bestBase.depth_ + 1;
+                    }
+                }
+                window.addLast(new DeltaCandidate(sha1, target, depth));
+                if (window.size() > DELTA_WINDOW) {
+                    window.removeFirst();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] deltaStoredForm(String base, byte[] delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(STORED_DELTA);
+        out.writeBytes(hexToBytes(base));
+        try (DeflaterOutputStream d = new DeflaterOutputStream(out)) {
+            d.write(delta);
+        } catch (IOException e) {
+            throw new GitletException("failed to compress delta");
+        }
+        return out.toByteArray();
+    }
+
+    /* stored form of an encoding outside of a delta */
+    private static byte[] storedForm(byte[] encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] sample = Arrays.copyOf(encoding, Math.min(encoding.length, SAMPLE_SIZE));
+        if (!worthCompressing(sample)) {
+            out.write(STORED_RAW);
+            out.writeBytes(encoding);
+            return out.toByteArray();
+        }
+        out.write(STORED_DEFLATED);
+        try (DeflaterOutputStream d = new DeflaterOutputStream(out)) {
+            d.write(encoding);
+        } catch (IOException e) {
+            throw new GitletException("failed to compress object");
+        }
+        return out.toByteArray();
+    }
+
+    private static int storedFlag(String sha1) {
+        try (InputStream in = openStored(sha1)) {
+            return in.read();
+        } catch (IOException e) {
+            throw new GitletException("failed to read object " + sha1);
+        }
+    }
+
+    /**
+     * Close the packs and list them again on next use, once another
+     * process may have repacked
+     */
+    public static synchronized void forgetPacks() {
+        if (packs_ != null) {
+            for (PackFile p : packs_) {
+                p.close();
+            }
+            packs_ = null;
+        }
+    }
+
+    private static synchronized List<PackFile> packs() {
+        if (packs_ == null) {
+            packs_ = new ArrayList<>();
+            var names = plainFilenamesIn(PACK_FOLDER);
+            if (names != null) {
+                for (String n : names) {
+                    if (n.startsWith("pack-") && n.endsWith(PackFile.IDX_SUFFIX)) {
+                        packs_.add(PackFile.fromIndexFile(join(PACK_FOLDER, n)));
+                    }
+                }
+            }
+        }
+        return packs_;
+    }
+
+    private static PackFile packContaining(String sha1) {
+        for (PackFile p : packs()) {
+            if (p.contains(sha1)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /* stream of the stored form of an object, packs first */
+    private static InputStream openStored(String sha1) {
+        PackFile p = packContaining(sha1);
+        if (p != null) {
+            return new BufferedInputStream(p.openStored(sha1));
+        }
+        File f = join(OBJECTS_FOLDER, sha1);
+        try {
+            return new BufferedInputStream(new FileInputStream(f));
+        } catch (IOException e) {
+            throw new GitletException("object " + sha1 + " not found in filesystem");
+        }
+    }
+
+    private static boolean worthCompressing(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater d = new Deflater();
+        try {
+            d.setInput(sample);
+            d.finish();
+            byte[] buf = new byte[sample.length];
+            int compressed = 0;
+            while (!d.finished() && compressed < sample.length) {
+                compressed += d.deflate(buf);
+            }
+            return d.finished() && compressed < sample.length * MIN_COMPRESSION_RATIO;
+        } finally {
+            d.end();
+        }
+    }
+
+    private static List<String> looseObjects() {
+        var objects = plainFilenamesIn(OBJECTS_FOLDER);
+        if (objects == null) {
+            throw new GitletException("Missing objects");
+        }
+        // Skip temporary files of interrupted writes
+        List<String> result = new ArrayList<>(objects.size());
+        for (String name : objects) {
+            if (name.length() == UID_LENGTH) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+}
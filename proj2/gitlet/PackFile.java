@@ -0,0 +1,424 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * A pack of gitlet objects stored as two files:
+ * <p>
+ * pack-NAME.pack: append-only sequence of objects, each stored as its
+ * length followed by its bytes in the stored form of ObjectStore.
+ * <p>
+ * pack-NAME.idx: a 256-entry fanout table whose entry i is the number of
+ * objects whose hash starts with a byte <= i, the 20-byte SHA-1 hashes of
+ * all objects in ascending order, and the offset of each object in the
+ * pack file. The index is memory-mapped and searched in place.
+ */
+public class PackFile {
+    // Static
+    public static final String PACK_SUFFIX = ".pack";
+    public static final String IDX_SUFFIX = ".idx";
+
+    private static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+    private static final int IDX_MAGIC = 0x47494458; // "GIDX"
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 8;
+    private static final int FANOUT_ENTRIES = 256;
+    private static final int HASHES_START = HEADER_LENGTH + FANOUT_ENTRIES * 4;
+
+    /**
+     * Open an existing pack by its index file
+     *
+     * @param idx index file of the pack
+     * @return PackFile
+     */
+    public static PackFile fromIndexFile(File idx) {
+        String name = idx.getName();
+        PackFile p = new PackFile();
+        p.idxFile_ = idx;
+        p.packFile_ = new File(idx.getParentFile(),
+                name.substring(0, name.length() - IDX_SUFFIX.length()) + PACK_SUFFIX);
+        try (FileChannel ch = FileChannel.open(idx.toPath(), StandardOpenOption.READ)) {
+            p.idx_ = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException e) {
+            throw new GitletException("failed to read pack index " + name);
+        }
+        if (p.idx_.capacity() < HASHES_START
+                || p.idx_.getInt(0) != IDX_MAGIC || p.idx_.getInt(4) != VERSION) {
+            throw new GitletException("bad pack index " + name);
+        }
+        p.count_ = p.fanout(FANOUT_ENTRIES - 1);
+        p.offsetsStart_ = HASHES_START + p.count_ * HASH_LENGTH;
+        if (p.idx_.capacity() != p.offsetsStart_ + p.count_ * 8L) {
+            throw new GitletException("bad pack index " + name);
+        }
+        return p;
+    }
+
+    /**
+     * Writes a new pack into a directory. Objects must be added in ascending
+     * order of their hashes.
+     */
+    public static class Writer {
+        public Writer(File dir) {
+            dir_ = dir;
+            hashes_ = new ArrayList<>();
+            offsets_ = new ArrayList<>();
+            try {
+                tmpPack_ = File.createTempFile("tmp-", PACK_SUFFIX, dir);
+                out_ = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmpPack_)));
+                out_.writeInt(PACK_MAGIC);
+                out_.writeInt(VERSION);
+            } catch (IOException e) {
+                throw new GitletException("failed to create pack");
+            }
+        }
+
+        /**
+         * Append an object in its stored form
+         *
+         * @param sha1   SHA-1 hash hex-string
+         * @param stored stream of the stored object, closed when copied
+         * @param length length of the stored object
+         */
+        public void add(String sha1, InputStream stored, long length) {
+            if (!hashes_.isEmpty() && hashes_.get(hashes_.size() - 1).compareTo(sha1) >= 0) {
+                throw new GitletException("pack objects out of order");
+            }
+            try (stored) {
+                hashes_.add(sha1);
+                offsets_.add(position_);
+                out_.writeLong(length);
+                if (stored.transferTo(out_) != length) {
+                    throw new GitletException("object " + sha1 + " changed while packing");
+                }
+                position_ += 8 + length;
+            } catch (IOException e) {
+                throw new GitletException("failed to write pack");
+            }
+        }
+
+        /**
+         * Close the pack, write its index and move both into place
+         *
+         * @return the finished PackFile
+         */
+        public PackFile finish() {
+            File tmpIdx;
+            try {
+                out_.close();
+                int[] fanout = new int[FANOUT_ENTRIES];
+                for (String h : hashes_) {
+                    fanout[Integer.parseInt(h.substring(0, 2), 16)]++;
+                }
+                for (int i = 1; i < FANOUT_ENTRIES; i++) {
+                    fanout[i] += fanout[i - 1];
+                }
+                tmpIdx = File.createTempFile("tmp-", IDX_SUFFIX, dir_);
+                try (DataOutputStream idx = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmpIdx)))) {
+                    idx.writeInt(IDX_MAGIC);
+                    idx.writeInt(VERSION);
+                    for (int n : fanout) {
+                        idx.writeInt(n);
+                    }
+                    for (String h : hashes_) {
+                        idx.write(hexToBytes(h));
+                    }
+                    for (long off : offsets_) {
+                        idx.writeLong(off);
+                    }
+                }
+                String name = "pack-" + sha1(new ArrayList<Object>(hashes_));
+                File pack = join(dir_, name + PACK_SUFFIX);
+                File idxFile = join(dir_, name + IDX_SUFFIX);
+                // Pack first: an index must never point at a missing pack
+                Files.move(tmpPack_.toPath(), pack.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Transaction.created(pack);
+                Transaction.created(idxFile);
+                return fromIndexFile(idxFile);
+            } catch (IOException e) {
+                throw new GitletException("failed to finish pack");
+            }
+        }
+
+        private final File dir_;
+        private final File tmpPack_;
+        private final List<String> hashes_;
+        private final List<Long> offsets_;
+        private DataOutputStream out_;
+        private long position_ = HEADER_LENGTH;
+    }
+
+    // Constructor
+    private PackFile() {
+    }
+
+    // Public methods
+    public int numObjects() {
+        return count_;
+    }
+
+    public boolean contains(String sha1) {
+        return find(hexToBytes(sha1)) >= 0;
+    }
+
+    /**
+     * Open an object in its stored form
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return stream of the stored object, or null if it is not in this pack
+     */
+    public InputStream openStored(String sha1) {
+        int i = find(hexToBytes(sha1));
+        if (i < 0) {
+            return null;
+        }
+        long pos = offset(i);
+        return new RegionInputStream(channel(), pos + 8, storedLength(pos));
+    }
+
+    /**
+     * Locate an object in its stored form within the pack file
+     *
+     * @param sha1 SHA-1 hash hex-string
+     * @return region of the pack, or null if the object is not in this pack
+     */
+    public ObjectStore.StoredRegion openRegion(String sha1) {
+        int i = find(hexToBytes(sha1));
+        if (i < 0) {
+            return null;
+        }
+        long pos = offset(i);
+        return new ObjectStore.StoredRegion(channel(), pos + 8, storedLength(pos), false);
+    }
+
+    /**
+     * @return length of the stored form of an object in this pack
+     */
+    public long storedLength(String sha1) {
+        int i = find(hexToBytes(sha1));
+        if (i < 0) {
+            throw new GitletException("object " + sha1 + " not in " + getName());
+        }
+        return storedLength(offset(i));
+    }
+
+    /**
+     * Find objects whose hash starts with a prefix
+     *
+     * @param prefix lower-case hex prefix of at least one digit
+     * @param limit  maximum number of hashes to return
+     * @return matching hashes in ascending order
+     */
+    public List<String> findPrefix(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        // Smallest hash with this prefix
+        StringBuilder lowest = new StringBuilder(prefix);
+        while (lowest.length() < UID_LENGTH) {
+            lowest.append('0');
+        }
+        byte[] key = hexToBytes(lowest.toString());
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = count_;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count_ && result.size() < limit; i++) {
+            String h = hashAt(i);
+            if (!h.startsWith(prefix)) {
+                break;
+            }
+            result.add(h);
+        }
+        return result;
+    }
+
+    /**
+     * @return hashes of all objects in this pack, in ascending order
+     */
+    public List<String> hashList() {
+        List<String> result = new ArrayList<>(count_);
+        for (int i = 0; i < count_; i++) {
+            result.add(hashAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Close the pack and delete both of its files
+     */
+    public void delete() {
+        close();
+        packFile_.delete();
+        idxFile_.delete();
+    }
+
+    public synchronized void close() {
+        if (channel_ != null) {
+            try {
+                channel_.close();
+            } catch (IOException ignored) {
+            }
+            channel_ = null;
+        }
+    }
+
+    public String getName() {
+        return packFile_.getName();
+    }
+
+    /**
+     * @return modification time of the pack file in milliseconds
+     */
+    public long lastModified() {
+        return packFile_.lastModified();
+    }
+
+    public long sizeOnDisk() {
+        return packFile_.length() + idxFile_.length();
+    }
+
+    // Private members
+    private File packFile_;
+    private File idxFile_;
+    private MappedByteBuffer idx_;
+    private int count_;
+    private int offsetsStart_;
+    private FileChannel channel_;
+
+    private synchronized FileChannel channel() {
+        if (channel_ == null) {
+            try {
+                channel_ = FileChannel.open(packFile_.toPath(), StandardOpenOption.READ);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                readFully(channel_, header, 0);
+                if (header.getInt(0) != PACK_MAGIC || header.getInt(4) != VERSION) {
+                    throw new GitletException("bad pack " + getName());
+                }
+            } catch (IOException e) {
+                throw new GitletException("failed to open pack " + getName());
+            }
+        }
+        return channel_;
+    }
+
+    private long storedLength(long entryOffset) {
+        ByteBuffer len = ByteBuffer.allocate(8);
+        try {
+            readFully(channel(), len, entryOffset);
+        } catch (IOException e) {
+            throw new GitletException("failed to read pack " + getName());
+        }
+        return len.getLong(0);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new EOFException("truncated pack");
+            }
+        }
+    }
+
+    /* Stream of a region of a file, read with positional reads so that
+     * several regions of one channel can be open at once */
+    private static class RegionInputStream extends InputStream {
+        RegionInputStream(FileChannel ch, long start, long length) {
+            ch_ = ch;
+            pos_ = start;
+            end_ = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos_ >= end_) {
+                return -1;
+            }
+            len = (int) Math.min(len, end_ - pos_);
+            int n = ch_.read(ByteBuffer.wrap(b, off, len), pos_);
+            if (n < 0) {
+                throw new EOFException("truncated pack");
+            }
+            pos_ += n;
+            return n;
+        }
+
+        private final FileChannel ch_;
+        private long pos_;
+        private final long end_;
+    }
+
+    private int fanout(int firstByte) {
+        return idx_.getInt(HEADER_LENGTH + firstByte * 4);
+    }
+
+    private long offset(int i) {
+        return idx_.getLong(offsetsStart_ + i * 8);
+    }
+
+    private String hashAt(int i) {
+        byte[] h = new byte[HASH_LENGTH];
+        idx_.get(HASHES_START + i * HASH_LENGTH, h);
+        return bytesToHex(h, 0, HASH_LENGTH);
+    }
+
+    /* compare the i-th hash in the index with SHA1, as unsigned bytes */
+    private int compareAt(int i, byte[] sha1) {
+        int base = HASHES_START + i * HASH_LENGTH;
+        for (int k = 0; k < HASH_LENGTH; k++) {
+            int cmp = Integer.compare(idx_.get(base + k) & 0xff, sha1[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private int find(byte[] sha1) {
+        int first = sha1[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, sha1);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+
+/**
+ * Keeps gitlet processes working on one repository from interfering, with
+ * locks on .gitlet/lock.
+ * <p>
+ * Commands that only read the repository, such as log and status, hold the
+ * repository lock shared and run together; the others hold it exclusively.
+ * Loose objects are written without it, since writing an object twice
+ * stores the same bytes under the same name.
+ * <p>
+ * Readers still save what they derive: the commit graph caches and the
+ * stat data of the index. Each such save takes the save lock, a second
+ * exclusive lock on the same file, so that readers save one at a time.
+ * Writers hold off every reader and need no save lock.
+ */
+public class RepoLock {
+    // Static
+    public static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    /* Byte ranges of the two locks in the lock file */
+    private static final long REPO_LOCK = 0;
+    private static final long SAVE_LOCK = 1;
+
+    /**
+     * Take the repository lock, waiting for other processes to release
+     * it, then replay the journal of an interrupted command. A shared lock
+     * already held is given up first, so the repository may change in
+     * between.
+     *
+     * @param shared whether to take the lock shared, for a command that
+     *               only reads the repository
+     */
+    public static synchronized void acquire(boolean shared) {
+        if (lock_ != null && (shared || !lock_.isShared())) {
+            return;
+        }
+        release();
+        try {
+            channel_ = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock_ = channel_.lock(REPO_LOCK, 1, shared);
+        } catch (IOException e) {
+            release();
+            throw new GitletException("failed to lock repository");
+        }
+        lockSaves();
+        try {
+            Transaction.recover();
+        } finally {
+            unlockSaves();
+        }
+    }
+
+    /**
+     * Release the repository lock, if held
+     */
+    public static synchronized void release() {
+        try {
+            if (channel_ != null) {
+                // Closing the channel releases its locks
+                channel_.close();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            channel_ = null;
+            lock_ = null;
+            saveLock_ = null;
+        }
+    }
+
+    /**
+     * Take the save lock for writing files that readers also write, to be
+     * released by unlockSaves() once saved. Does nothing unless the
+     * repository lock is held shared.
+     */
+    public static synchronized void lockSaves() {
+        if (lock_ == null || !lock_.isShared()) {
+            return;
+        }
+        try {
+            saveLock_ = channel_.lock(SAVE_LOCK, 1, false);
+        } catch (IOException e) {
+            throw new GitletException("failed to lock repository");
+        }
+    }
+
+    /**
+     * Release the save lock, if held
+     */
+    public static synchronized void unlockSaves() {
+        try {
+            if (saveLock_ != null && saveLock_.isValid()) {
+                saveLock_.release();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            saveLock_ = null;
+        }
+    }
+
+    // Private members
+    private static FileChannel channel_;
+    /* repository lock held by this process */
+    private static FileLock lock_;
+    /* save lock held by this process */
+    private static FileLock saveLock_;
+}
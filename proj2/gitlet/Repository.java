@@ -1,6 +1,18 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -21,6 +33,19 @@ public class Repository {
      */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     public static final File OBJECTS_FOLDER = join(GITLET_DIR, "objects");
+    /* Scratch space of restoreCommit */
+    private static final File RESTORE_DIR = join(GITLET_DIR, "restore");
+    /* Scratch space of diff, for stored blobs being compared; one per
+     * process, as diffs run together under the shared lock */
+    private static final File DIFF_DIR =
+            join(GITLET_DIR, "diff-" + ProcessHandle.current().pid());
+    /* Age in seconds under which gc keeps unreachable objects, two weeks
+     * unless set with -Dgitlet.gcGracePeriod */
+    public static final String GC_GRACE_PROPERTY = "gitlet.gcGracePeriod";
+    private static final long DEFAULT_GC_GRACE = 14L * 24 * 60 * 60;
+    /* Codec tag of each object type named by fsck */
+    private static final Map<String, Byte> OBJECT_TAGS =
+            Map.of("commit", Codec.TAG_COMMIT, "tree", Codec.TAG_TREE, "blob", Codec.TAG_BLOB);
     public static final String DEFAULT_BRANCH = "master";
 
 
@@ -44,6 +69,9 @@ public class Repository {
         // Create initial commit
         Commit ic = Commit.initial();
         ic.save();
+        CommitGraph graph = CommitGraph.createEmpty();
+        graph.add(ic);
+        graph.save();
 
         // Create head file
         Head head = Head.createEmpty();
@@ -57,27 +85,94 @@ public class Repository {
         branches.save();
     }
 
-    public static void add(String filename) {
-        if (filename.equals(".gitlet")) {
-            throw new GitletException("Can't add .gitlet directory");
-        }
-        File f = join(CWD, filename);
-        if (!f.exists()) {
-            System.out.println("File does not exist.");
-            return;
+    /**
+     * Stage files given as paths, as directories whose files are all
+     * staged, or as glob patterns matched against paths in the working
+     * tree. The blobs are written in parallel before taking the lock,
+     * skipping files whose stat data shows them already staged, then the
+     * index is updated and saved once.
+     *
+     * @param paths files, directories and globs
+     * @return number of files staged
+     */
+    public static int add(String... paths) {
+        Set<String> files = new TreeSet<>();
+        List<String> tree = null;
+        for (String path : paths) {
+            if (isGlob(path)) {
+                if (tree == null) {
+                    tree = workingFiles(CWD);
+                }
+                PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                int before = files.size();
+                for (String f : tree) {
+                    if (m.matches(Paths.get(f))) {
+                        files.add(f);
+                    }
+                }
+                if (files.size() == before) {
+                    System.out.println("File does not exist.");
+                    return 0;
+                }
+                continue;
+            }
+            if (Paths.get(path).normalize().toString().isEmpty()) {
+                // The working tree itself
+                files.addAll(workingFiles(CWD));
+                continue;
+            }
+            String filename = normalizePath(path);
+            if (filename.equals(".gitlet") || filename.startsWith(".gitlet/")) {
+                throw new GitletException("Can't add .gitlet directory");
+            }
+            File f = join(CWD, filename);
+            if (!f.exists()) {
+                System.out.println("File does not exist.");
+                return 0;
+            }
+            if (f.isDirectory()) {
+                files.addAll(workingFiles(f));
+            } else {
+                files.add(filename);
+            }
         }
-        if (f.isDirectory()) {
-            throw new GitletException("Directories not supported");
+
+        // Create blobs before locking: storing an object freshens it, so gc
+        // keeps it for its grace period. The index read here only tells
+        // which files need no hashing.
+        Index seen = Index.fromFilesystem();
+        List<String> changed = new ArrayList<>();
+        for (String f : files) {
+            if (!seen.statMatches(f)) {
+                changed.add(f);
+            }
         }
+        List<StagedFile> staged = new ArrayList<>(Workers.map(changed, Repository::stageFile));
 
+        RepoLock.acquire(false);
         Index index = Index.fromFilesystem();
-        Head head = Head.fromFilesystem();
-        // Create blob
-        Blob blob = Blob.fromFileName(filename);
-
-        blob.save();
-        index.putFile(filename, blob.getSHA1Hash());
+        List<String> moved = new ArrayList<>();
+        for (String f : files) {
+            // Restaged by another process since it was found unchanged
+            if (seen.statMatches(f) && !Objects.equals(seen.getFile(f), index.getFile(f))) {
+                moved.add(f);
+            }
+        }
+        // A gc that took the lock first may still have deleted a blob it
+        // judged before the blob was freshened: store it again
+        ObjectStore.forgetPacks();
+        for (StagedFile f : staged) {
+            if (!ObjectStore.contains(f.blob_)) {
+                moved.add(f.filename_);
+            }
+        }
+        staged.addAll(Workers.map(moved, Repository::stageFile));
+        for (StagedFile f : staged) {
+            index.putFile(f.filename_, f.blob_);
+            index.recordStat(f.filename_, f.stat_);
+        }
         index.save();
+        return files.size();
     }
 
     public static void commit(String msg) {
@@ -98,11 +193,18 @@ public class Repository {
         head.setHash(nc.getSHA1Hash());
         branches.setBranchHead(head.getBranch(), nc.getSHA1Hash());
         nc.save();
+        // Keep the trees written for this commit cached in the index
+        index.save();
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        graph.lookup(prev.getSHA1Hash());
+        graph.add(nc);
+        graph.save();
         head.save();
         branches.save();
     }
 
     public static void rm(String filename) {
+        filename = normalizePath(filename);
         File f = join(CWD, filename);
         if (f.isDirectory()) {
             throw new GitletException("Directories not supported");
@@ -134,49 +236,34 @@ public class Repository {
     public static void log() {
         Head head = Head.fromFilesystem();
 
-        Commit c = Commit.fromObjects(head.getHash());
-        while (true) {
-            System.out.print(c.toLogEntry());
-            if (c.getParent() == null) {
-                break;
-            }
-            c = Commit.fromObjects(c.getParent());
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        // Walk first parents in the graph, without reading commits
+        for (int i = graph.lookup(head.getHash()); i >= 0; i = graph.parent(i)) {
+            System.out.print(graph.logEntry(i));
         }
+        graph.save();
     }
 
     public static void globalLog() {
-        var objects = Utils.plainFilenamesIn(OBJECTS_FOLDER);
-        if (objects == null) {
-            throw new GitletException("Missing objects");
-        }
-        for (var obj : objects) {
-            try {
-                Commit c = Commit.fromObjects(obj);
-                System.out.print(c.toLogEntry());
-            } catch (ClassCastException ignored) {
-            }
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        graph.completeFromObjects();
+        for (int i = 0; i < graph.numCommits(); i++) {
+            System.out.print(graph.logEntry(i));
         }
+        graph.save();
     }
 
     public static void find(String msg) {
-        var objects = Utils.plainFilenamesIn(OBJECTS_FOLDER);
-        if (objects == null) {
-            throw new GitletException("Missing objects");
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        graph.completeFromObjects();
+        MessageIndex index = MessageIndex.fromFilesystem(graph);
+        List<Integer> found = index.find(msg);
+        for (int i : found) {
+            System.out.println(graph.hash(i));
         }
-        boolean found = false;
-        for (var obj : objects) {
-            try {
-                Commit c = Commit.fromObjects(obj);
-                if (!msg.equals(c.getMsg())) {
-                    continue;
-                }
-                System.out.println(c.getSHA1Hash());
-            } catch (IllegalArgumentException | ClassCastException e) {
-                continue;
-            }
-            found = true;
-        }
-        if (!found) {
+        graph.save();
+        index.save();
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -195,8 +282,9 @@ public class Repository {
             return;
         }
 
-        Blob b = Blob.fromObjects(blobHash);
-        b.restore();
+        File f = join(CWD, filename);
+        f.getParentFile().mkdirs();
+        Blob.writeFromObjects(blobHash, f);
     }
 
     public static void checkoutFileFromHead(String filename) {
@@ -275,23 +363,23 @@ public class Repository {
             System.out.println(f);
         }
 
-        // Modifications
-        var indexSet = index.entrySet();
+        // Modifications, hashing files in parallel
+        List<String> tracked = new ArrayList<>(index.filenameSet());
+        List<TrackedScan> scans = Workers.map(tracked, f -> scanTracked(index, f));
         Set<String> output = new TreeSet<>();
-        for (var e : indexSet) {
-            File f = Utils.join(CWD, e.getKey());
-            if (!f.exists()) {
-                output.add(e.getKey() + " (deleted)");
-                continue;
-            }
-            if (f.isDirectory()) {
-                throw new GitletException("Directories not supported");
-            }
-            Blob b = Blob.fromFileName(e.getKey());
-            if (!e.getValue().equals(b.getSHA1Hash())) {
-                output.add(e.getKey() + " (modified)");
+        boolean refreshed = false;
+        for (var scan : scans) {
+            if (scan.change_ != null) {
+                output.add(scan.filename_ + " (" + scan.change_ + ")");
+            } else if (scan.stat_ != null) {
+                // Remember stat data of files found unchanged, so they are not hashed next time
+                index.recordStat(scan.filename_, scan.stat_);
+                refreshed = true;
             }
         }
+        if (refreshed) {
+            index.save();
+        }
 
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
@@ -299,12 +387,8 @@ public class Repository {
             System.out.println(line);
         }
 
-        // Untracked
-        var currentFilesList = Utils.plainFilenamesIn(CWD);
-        if (currentFilesList == null) {
-            throw new GitletException("No a directory");
-        }
-        Set<String> untracked = new TreeSet<>(currentFilesList);
+        // Untracked, anywhere in the working tree
+        Set<String> untracked = new TreeSet<>(workingFiles(CWD));
         untracked.removeAll(indexFileSet);
 
         System.out.println();
@@ -397,45 +481,9 @@ public class Repository {
         }
 
         // Look for split point
-        HashSet<String> currentAncestors = new HashSet<>();
-        Queue<String> fringe = new LinkedList<>();
-
-        // Search for all ancestors of current branch head
-        fringe.add(currentBranchHead);
-        while (!fringe.isEmpty()) {
-            String hash = fringe.remove();
-            Commit c = Commit.fromObjects(hash);
-            currentAncestors.add(hash);
-            String parent = c.getParent();
-            String altParent = c.getAltParent();
-            if (parent != null) {
-                fringe.add(parent);
-            }
-            if (altParent != null) {
-                fringe.add(altParent);
-            }
-        }
-
-        // BFS for latest common ancestor
-        String latestCommonAncestor = null;
-        fringe = new LinkedList<>();
-        fringe.add(givenBranchHead);
-        while (!fringe.isEmpty()) {
-            String hash = fringe.remove();
-            if (currentAncestors.contains(hash)) {
-                latestCommonAncestor = hash;
-                break;
-            }
-            Commit c = Commit.fromObjects(hash);
-            String parent = c.getParent();
-            String altParent = c.getAltParent();
-            if (parent != null) {
-                fringe.add(parent);
-            }
-            if (altParent != null) {
-                fringe.add(altParent);
-            }
-        }
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        String latestCommonAncestor = graph.mergeBase(currentBranchHead, givenBranchHead);
+        graph.save();
 
         if (latestCommonAncestor == null) {
             throw new GitletException("No common ancestors");
@@ -507,18 +555,20 @@ public class Repository {
                 newIndex.putFile(f, currentHash);
             } else {
                 String splitHash = splitPointCommit.getFile(f);
-                if (splitHash.equals(currentHash)) {
+                if (currentHash.equals(splitHash)) {
                     newIndex.putFile(f, givenHash);
-                } else if (splitHash.equals(givenHash)) {
+                } else if (givenHash.equals(splitHash)) {
                     newIndex.putFile(f, currentHash);
                 } else {
-                    // conflict
-                    Blob currentBlob = Blob.fromObjects(currentHash);
-                    Blob givenBlob = Blob.fromObjects(givenHash);
-                    Blob merged = Blob.fromMerge(f, currentBlob, givenBlob);
+                    // Changed on both sides, or added on both: merge lines
+                    byte[] base = splitHash == null
+                            ? new byte[0] : Blob.fromObjects(splitHash).getContent();
+                    Diff.Merge m = Diff.merge3(base, Blob.fromObjects(currentHash).getContent(),
+                            Blob.fromObjects(givenHash).getContent());
+                    Blob merged = Blob.fromContent(f, m.content_);
                     merged.save();
                     newIndex.putFile(f, merged.getSHA1Hash());
-                    conflict = true;
+                    conflict |= m.conflict_;
                 }
             }
         }
@@ -527,9 +577,12 @@ public class Repository {
         String msg = "Merged " + givenBranch + " into " + head.getBranch() + ".";
         Commit nc = Commit.fromIndex(newIndex, msg, currentBranchHead, givenBranchHead);
         nc.save();
+        graph.add(nc);
+        graph.save();
         head.setHash(nc.getSHA1Hash());
         head.save();
         branches.setBranchHead(head.getBranch(), nc.getSHA1Hash());
+        branches.save();
 
         // Restore files
         restoreCommit(nc.getSHA1Hash());
@@ -539,52 +592,505 @@ public class Repository {
         }
     }
 
+    /**
+     * Print a unified diff of each staged file changed in the working tree
+     */
+    public static void diffWorkingTree() {
+        Index index = Index.fromFilesystem();
+        List<String> tracked = new ArrayList<>(index.filenameSet());
+        List<TrackedScan> scans = Workers.map(tracked, f -> scanTracked(index, f));
+        Map<String, String> staged = new TreeMap<>();
+        Map<String, String> present = new TreeMap<>();
+        Set<String> modified = new HashSet<>();
+        for (var scan : scans) {
+            if (scan.change_ != null) {
+                staged.put(scan.filename_, index.getFile(scan.filename_));
+                if (scan.change_.equals("modified")) {
+                    present.put(scan.filename_, index.getFile(scan.filename_));
+                    modified.add(scan.filename_);
+                }
+            }
+        }
+        printDiffs(staged, present, modified);
+    }
+
+    /**
+     * Print a unified diff of each file staged differently from the head
+     * commit
+     */
+    public static void diffCached() {
+        Commit head = Commit.fromObjects(Head.fromFilesystem().getHash());
+        printDiffs(filesOf(head), filesOf(Index.fromFilesystem().entrySet()), Set.of());
+    }
+
+    /**
+     * Print a unified diff of each file that differs between two commits
+     *
+     * @param from id or unique prefix of the old commit
+     * @param to   id or unique prefix of the new commit
+     */
+    public static void diffCommits(String from, String to) {
+        String fromFull = getFullObjectHash(from);
+        String toFull = getFullObjectHash(to);
+        if (fromFull == null || toFull == null
+                || ObjectStore.typeOf(fromFull) != Codec.TAG_COMMIT
+                || ObjectStore.typeOf(toFull) != Codec.TAG_COMMIT) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        printDiffs(filesOf(Commit.fromObjects(fromFull)), filesOf(Commit.fromObjects(toFull)),
+                Set.of());
+    }
+
+    private static Map<String, String> filesOf(Commit c) {
+        return filesOf(c.entrySet());
+    }
+
+    private static Map<String, String> filesOf(Set<Map.Entry<String, String>> entries) {
+        Map<String, String> result = new HashMap<>();
+        for (var e : entries) {
+            result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /* Print a unified diff for each path whose blob differs between FROM
+     * and TO, maps of path to blob hash, in path order. Paths in WORKING
+     * are compared with their file in the working tree instead. Stored
+     * blobs are written to DIFF_DIR to be compared, one path at a time. */
+    private static void printDiffs(Map<String, String> from, Map<String, String> to,
+                                   Set<String> working) {
+        Set<String> paths = new TreeSet<>(from.keySet());
+        paths.addAll(to.keySet());
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (String path : paths) {
+                String a = from.get(path);
+                String b = to.get(path);
+                if (!working.contains(path) && Objects.equals(a, b)) {
+                    continue;
+                }
+                File aFile = a == null ? null : blobFile(a);
+                File bFile = working.contains(path) ? join(CWD, path)
+                        : b == null ? null : blobFile(b);
+                Diff.writeUnified(path, aFile, bFile, out);
+                clearDirectory(DIFF_DIR);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new GitletException("failed to write diff: " + e.getMessage());
+        } finally {
+            clearDirectory(DIFF_DIR);
+        }
+    }
+
+    /* Write the content of a stored blob into DIFF_DIR */
+    private static File blobFile(String sha1) {
+        if (!DIFF_DIR.isDirectory() && !DIFF_DIR.mkdir()) {
+            throw new GitletException("failed to create " + DIFF_DIR);
+        }
+        File f = join(DIFF_DIR, sha1);
+        if (!f.exists()) {
+            Blob.writeFromObjects(sha1, f);
+        }
+        return f;
+    }
+
+    /* A file stored as a blob by add, with its stat data taken before */
+    private static class StagedFile {
+        final String filename_;
+        final String blob_;
+        final Index.Stat stat_;
+
+        StagedFile(String filename, String blob, Index.Stat stat) {
+            filename_ = filename;
+            blob_ = blob;
+            stat_ = stat;
+        }
+    }
+
+    private static StagedFile stageFile(String filename) {
+        Index.Stat stat = Index.Stat.of(join(CWD, filename));
+        return new StagedFile(filename, Blob.saveFromFileName(filename), stat);
+    }
+
+    private static boolean isGlob(String path) {
+        return path.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+    }
+
+    /* Paths of the files under DIR, relative to CWD, leaving out .gitlet */
+    private static List<String> workingFiles(File dir) {
+        List<String> files = new ArrayList<>();
+        Path root = CWD.toPath();
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    return d.equals(GITLET_DIR.toPath()) ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        files.add(root.relativize(f).toString().replace(File.separatorChar, '/'));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new GitletException("failed to list " + dir);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /* Result of comparing a staged file with the working tree. CHANGE_ is
+     * "deleted", "modified" or null; STAT_ is set if the file was hashed
+     * and found unchanged. */
+    private static class TrackedScan {
+        final String filename_;
+        String change_;
+        Index.Stat stat_;
+
+        TrackedScan(String filename) {
+            filename_ = filename;
+        }
+    }
+
+    /* Compare one staged file with the working tree. Only reads the index,
+     * so it is safe to run for many files at once. */
+    private static TrackedScan scanTracked(Index index, String filename) {
+        TrackedScan scan = new TrackedScan(filename);
+        File f = join(CWD, filename);
+        if (!f.exists()) {
+            scan.change_ = "deleted";
+            return scan;
+        }
+        if (f.isDirectory()) {
+            throw new GitletException("Directories not supported");
+        }
+        if (index.statMatches(filename)) {
+            return scan;
+        }
+        Index.Stat stat = Index.Stat.of(f);
+        if (!index.getFile(filename).equals(Blob.hashFileName(filename))) {
+            scan.change_ = "modified";
+        } else {
+            scan.stat_ = stat;
+        }
+        return scan;
+    }
+
     private static boolean hasUntracked(Index index) {
-        // Check for untracked files
+        // Check for untracked files, anywhere in the working tree
         var indexFileSet = index.filenameSet();
-        var currentFilesList = Utils.plainFilenamesIn(CWD);
-        if (currentFilesList == null) {
-            throw new GitletException("No a directory");
-        }
-        Set<String> untracked = new TreeSet<>(currentFilesList);
+        Set<String> untracked = new TreeSet<>(workingFiles(CWD));
         untracked.removeAll(indexFileSet);
 
         return !untracked.isEmpty();
     }
 
+    public static void repack() {
+        ObjectStore.repack();
+    }
+
+    /**
+     * Delete the objects not reachable from the branches, head or index,
+     * unless they are younger than the grace period, and repack the rest
+     *
+     * @param pruneNow whether to delete unreachable objects of any age
+     */
+    public static void gc(boolean pruneNow) {
+        long start = System.nanoTime();
+        long grace = pruneNow ? 0 : 1000 * Long.getLong(GC_GRACE_PROPERTY, DEFAULT_GC_GRACE);
+        long before = ObjectStore.sizeOnDisk();
+        List<String> deleted = ObjectStore.collect(reachableObjects(), grace);
+        // Rebuild the catalog, which may list deleted commits or be corrupt
+        CommitGraph.GRAPH_FILE.delete();
+        CommitGraph.MESSAGES_FILE.delete();
+        MessageIndex.INDEX_FILE.delete();
+        CommitGraph graph = CommitGraph.fromFilesystem();
+        graph.completeFromObjects();
+        graph.save();
+        MessageIndex.fromFilesystem(graph).save();
+        long reclaimed = before - ObjectStore.sizeOnDisk();
+        System.out.println("Removed " + deleted.size() + " unreachable objects.");
+        System.out.printf("Reclaimed %d bytes in %d ms.%n", reclaimed,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Verify every stored object in parallel, then check that every object
+     * reachable from the branches, head and index is present
+     */
+    public static void fsck() {
+        List<String> objects = ObjectStore.list();
+        List<String> problems = Workers.map(objects, ObjectStore::verify);
+        Set<String> corrupt = new HashSet<>();
+        Set<String> report = new TreeSet<>();
+        for (int i = 0; i < objects.size(); i++) {
+            if (problems.get(i) != null) {
+                corrupt.add(objects.get(i));
+                report.add("corrupt object " + objects.get(i) + ": " + problems.get(i));
+            } else {
+                VerifyPolicy.markVerified(objects.get(i));
+            }
+        }
+
+        // Walk everything reachable, as (hash, type) pairs
+        Deque<String[]> fringe = new ArrayDeque<>();
+        Branches branches = Branches.fromFilesystem();
+        for (String b : branches.branchSet()) {
+            fringe.push(new String[]{branches.getBranchHead(b), "commit"});
+        }
+        fringe.push(new String[]{Head.fromFilesystem().getHash(), "commit"});
+        for (var e : Index.fromFilesystem().entrySet()) {
+            fringe.push(new String[]{e.getValue(), "blob"});
+        }
+        Set<String> visited = new HashSet<>();
+        int missing = 0;
+        while (!fringe.isEmpty()) {
+            String[] obj = fringe.pop();
+            String hash = obj[0];
+            String type = obj[1];
+            if (!visited.add(hash)) {
+                continue;
+            }
+            if (!ObjectStore.contains(hash)) {
+                report.add("missing " + type + " " + hash);
+                missing++;
+                continue;
+            }
+            if (corrupt.contains(hash)) {
+                continue;
+            }
+            try {
+                // The header tells the type without decoding the object
+                byte tag = ObjectStore.typeOf(hash);
+                if (tag != OBJECT_TAGS.get(type)) {
+                    report.add("bad " + type + " " + hash + ": type '" + (char) tag + "'");
+                    continue;
+                }
+                if (type.equals("blob")) {
+                    continue;
+                }
+                if (type.equals("commit")) {
+                    Commit c = Commit.fromObjects(hash);
+                    for (String p : new String[]{c.getParent(), c.getAltParent()}) {
+                        if (p != null) {
+                            fringe.push(new String[]{p, "commit"});
+                        }
+                    }
+                    fringe.push(new String[]{c.getTree(), "tree"});
+                } else {
+                    for (var e : Tree.fromObjects(hash).entrySet()) {
+                        Tree.Entry entry = e.getValue();
+                        fringe.push(new String[]{entry.getHash(), entry.isTree() ? "tree" : "blob"});
+                    }
+                }
+            } catch (GitletException e) {
+                report.add("bad " + type + " " + hash + ": " + e.getMessage());
+            }
+        }
+
+        for (String line : report) {
+            System.out.println(line);
+        }
+        System.out.printf("Checked %d objects: %d corrupt, %d missing.%n",
+                objects.size(), corrupt.size(), missing);
+    }
+
+    /* Path of a file relative to CWD with '/' separators, as stored in the
+     * index and in trees */
+    private static String normalizePath(String filename) {
+        Path p = Paths.get(filename).normalize();
+        if (p.isAbsolute() || p.toString().isEmpty() || p.startsWith("..")) {
+            throw new GitletException("Invalid path " + filename);
+        }
+        return p.toString().replace(File.separatorChar, '/');
+    }
+
     private static String getFullObjectHash(String hashPrefix) {
-        var objects = Utils.plainFilenamesIn(OBJECTS_FOLDER);
-        if (objects == null) {
-            throw new GitletException("Missing objects");
-        }
-        String objectHash = null;
-        for (var obj : objects) {
-            if (obj.startsWith(hashPrefix)) {
-                objectHash = obj;
+        var objects = ObjectStore.findPrefix(hashPrefix, 2);
+        if (objects.isEmpty()) {
+            return null;
+        }
+        if (objects.size() > 1) {
+            throw error("Ambiguous object id %s: matches %s and %s.",
+                    hashPrefix, objects.get(0), objects.get(1));
+        }
+        return objects.get(0);
+    }
+
+    /* Every object reachable from the branches, head and index. Fails if
+     * any of them cannot be read, as what it refers to would be unknown. */
+    private static Set<String> reachableObjects() {
+        Set<String> result = new HashSet<>();
+        Deque<String> commits = new ArrayDeque<>();
+        Deque<String> trees = new ArrayDeque<>();
+        Branches branches = Branches.fromFilesystem();
+        for (String b : branches.branchSet()) {
+            commits.push(branches.getBranchHead(b));
+        }
+        commits.push(Head.fromFilesystem().getHash());
+        Index index = Index.fromFilesystem();
+        for (var e : index.entrySet()) {
+            result.add(e.getValue());
+        }
+        trees.addAll(index.cachedTrees());
+
+        while (!commits.isEmpty()) {
+            String hash = commits.pop();
+            if (!result.add(hash)) {
+                continue;
             }
+            Commit c = Commit.fromObjects(hash);
+            for (String p : new String[]{c.getParent(), c.getAltParent()}) {
+                if (p != null) {
+                    commits.push(p);
+                }
+            }
+            trees.push(c.getTree());
         }
-        return objectHash;
+        while (!trees.isEmpty()) {
+            String hash = trees.pop();
+            if (!result.add(hash)) {
+                continue;
+            }
+            for (var e : Tree.fromObjects(hash).entrySet()) {
+                if (e.getValue().isTree()) {
+                    trees.push(e.getValue().getHash());
+                } else {
+                    result.add(e.getValue().getHash());
+                }
+            }
+        }
+        return result;
     }
 
+    /**
+     * Make the working tree and index match a commit, touching only the
+     * files that differ from the current index. Files whose content is
+     * already right are neither rewritten nor have their mtime changed.
+     * <p>
+     * Blobs are first written to temporary files in parallel, then moved
+     * into place. If anything fails, files already replaced are put back,
+     * so the working tree is either fully restored or left as it was.
+     */
     private static void restoreCommit(String commit) {
-        // Restore CWD
-        var currentFilesList = Utils.plainFilenamesIn(CWD);
-        if (currentFilesList == null) {
-            throw new GitletException("CWD should be directory");
-        }
+        Index oldIndex = Index.fromFilesystem();
         Commit c = Commit.fromObjects(commit);
-        for (var n : currentFilesList) {
-            File f = join(CWD, n);
-            if (!f.delete()) {
-                System.out.println("warning: file deletion failed: " + n);
+        Index newIndex = Index.fromCommit(c);
+
+        // Files tracked now but not in the commit
+        List<String> deletes = new ArrayList<>();
+        for (String f : oldIndex.filenameSet()) {
+            if (!newIndex.hasFile(f) && join(CWD, f).exists()) {
+                deletes.add(f);
             }
         }
-        for (var e : c.entrySet()) {
-            Blob b = Blob.fromObjects(e.getValue());
-            b.restore();
+        List<String> writes = new ArrayList<>();
+        for (var e : newIndex.entrySet()) {
+            String f = e.getKey();
+            File file = join(CWD, f);
+            if (e.getValue().equals(oldIndex.getFile(f)) && file.isFile()) {
+                if (oldIndex.statMatches(f)) {
+                    newIndex.recordStat(f, oldIndex.getStat(f));
+                    continue;
+                }
+                Index.Stat stat = Index.Stat.of(file);
+                if (e.getValue().equals(Blob.hashFileName(f))) {
+                    newIndex.recordStat(f, stat);
+                    continue;
+                }
+            }
+            writes.add(f);
+        }
+
+        // Read, inflate and write blobs in parallel, outside the working tree
+        clearDirectory(RESTORE_DIR);
+        RESTORE_DIR.mkdir();
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            indices.add(i);
+        }
+        try {
+            Workers.map(indices, i -> {
+                Blob.writeFromObjects(newIndex.getFile(writes.get(i)),
+                        join(RESTORE_DIR, "new-" + i));
+                return null;
+            });
+        } catch (RuntimeException e) {
+            clearDirectory(RESTORE_DIR);
+            throw new GitletException("Failed to restore files, working tree unchanged: "
+                    + e.getMessage());
+        }
+
+        // Swap files in, keeping what they replace until everything is in place
+        Map<String, File> replaced = new HashMap<>();
+        List<String> placed = new ArrayList<>();
+        try {
+            for (String f : deletes) {
+                File backup = join(RESTORE_DIR, "old-" + replaced.size());
+                Files.move(join(CWD, f).toPath(), backup.toPath());
+                replaced.put(f, backup);
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                String f = writes.get(i);
+                File target = join(CWD, f);
+                if (target.exists()) {
+                    File backup = join(RESTORE_DIR, "old-" + replaced.size());
+                    Files.move(target.toPath(), backup.toPath());
+                    replaced.put(f, backup);
+                }
+                target.getParentFile().mkdirs();
+                Files.move(join(RESTORE_DIR, "new-" + i).toPath(), target.toPath());
+                placed.add(f);
+            }
+        } catch (IOException e) {
+            for (String f : placed) {
+                join(CWD, f).delete();
+            }
+            for (var r : replaced.entrySet()) {
+                try {
+                    Files.move(r.getValue().toPath(), join(CWD, r.getKey()).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ignored) {
+                    System.out.println("warning: failed to put back " + r.getKey());
+                }
+            }
+            clearDirectory(RESTORE_DIR);
+            throw new GitletException("Failed to restore files, working tree unchanged: "
+                    + e.getMessage());
+        }
+        clearDirectory(RESTORE_DIR);
+        for (String f : deletes) {
+            pruneEmptyParents(join(CWD, f));
+        }
+
+        // Recorded, but racy until the index is saved again
+        for (String f : writes) {
+            newIndex.recordStat(f, Index.Stat.of(join(CWD, f)));
         }
-        // Modify index
-        Index newIndex = Index.fromCommit(c);
         newIndex.save();
     }
+
+    /* Delete a directory of plain files, if it exists */
+    private static void clearDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /* Delete directories left empty by a deleted file, up to CWD */
+    private static void pruneEmptyParents(File f) {
+        for (File dir = f.getParentFile(); !dir.equals(CWD) && dir.delete(); ) {
+            dir = dir.getParentFile();
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Times cold launches of gitlet commands with and without a class data
+ * sharing archive made by CdsTraining. Invoke in an empty scratch
+ * directory as
+ * java gitlet.StartupBenchmark JAR ARCHIVE
+ * where JAR holds the gitlet classes and ARCHIVE was dumped with JAR as the
+ * class path, as make cds does.
+ * <p>
+ * Creates a small repository, then reports the mean wall time of a new JVM
+ * running each of a few short commands, first with the default class data
+ * sharing of the JDK only, then with ARCHIVE as well. The repository is
+ * left in place.
+ */
+public class StartupBenchmark {
+    private static final int ROUNDS = 10;
+    private static final String[][] COMMANDS = {{"status"}, {"log"}, {"branch", "b"}};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: java gitlet.StartupBenchmark JAR ARCHIVE");
+        }
+        String jar = new File(args[0]).getAbsolutePath();
+        String archive = new File(args[1]).getAbsolutePath();
+        if (Repository.repoExists()) {
+            throw new IllegalArgumentException("run in an empty directory");
+        }
+        Repository.init();
+        for (int i = 0; i < 10; i++) {
+            writeContents(join(Repository.CWD, "file" + i + ".txt"), "version 0 of " + i + "\n");
+        }
+        Repository.add(".");
+        Repository.commit("base");
+        RepoLock.release();
+
+        System.out.printf("%-10s %14s %14s %9s\n", "command", "default (ms)", "archive (ms)",
+                "speedup");
+        System.out.printf("------------------------------------------------\n");
+        for (String[] command : COMMANDS) {
+            double plain = 0;
+            double shared = 0;
+            // One extra round warms up the file cache and is not counted
+            for (int r = 0; r <= ROUNDS; r++) {
+                double p = time(jar, null, command);
+                double s = time(jar, archive, command);
+                if (r > 0) {
+                    plain += p;
+                    shared += s;
+                }
+            }
+            System.out.printf("%-10s %14.1f %14.1f %8.2fx\n", String.join(" ", command),
+                    plain / ROUNDS, shared / ROUNDS, plain / shared);
+        }
+    }
+
+    /* Run a command in a new JVM, returning its time in milliseconds */
+    private static double time(String jar, String archive, String[] args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        if (archive != null) {
+            // Fail rather than quietly time a launch without the archive
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:on");
+        }
+        command.add("-cp");
+        command.add(jar);
+        command.add("gitlet.Main");
+        command.addAll(List.of(args));
+        ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        int status = pb.start().waitFor();
+        double ms = (System.nanoTime() - start) / 1e6;
+        if (status != 0) {
+            throw new IllegalStateException("gitlet exited with " + status);
+        }
+        if (args[0].equals("branch")) {
+            // So that the next launch does the same work
+            Repository.rmBranch(args[1]);
+        }
+        return ms;
+    }
+}
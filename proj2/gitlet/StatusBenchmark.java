@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Measures how hashing the working tree, the expensive part of a first
+ * status, scales with the number of worker threads. Invoke in a scratch
+ * directory as
+ * java gitlet.StatusBenchmark [files] [max threads]
+ * <p>
+ * Writes a synthetic tree of small files (100000 by default) into a
+ * subdirectory, hashes all of them with 1, 2, 4, ... threads up to the
+ * number of processors, and deletes the tree afterwards.
+ */
+public class StatusBenchmark {
+    private static final String TREE_DIR = "status-benchmark-tree";
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        File dir = join(Repository.CWD, TREE_DIR);
+        if (dir.exists()) {
+            throw new IllegalArgumentException(TREE_DIR + " already exists");
+        }
+        List<String> files = createTree(dir, n);
+        try {
+            System.out.printf("%8s %10s %12s %10s\n", "threads", "files", "time (ms)", "speedup");
+            System.out.printf("------------------------------------------\n");
+            // Warm up the JIT and the page cache
+            Workers.map(files, Blob::hashFileName, maxThreads);
+            double base = 0;
+            for (int t = 1; t <= maxThreads; t = t < maxThreads ? Math.min(2 * t, maxThreads) : t + 1) {
+                double best = Double.MAX_VALUE;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long start = System.nanoTime();
+                    Workers.map(files, Blob::hashFileName, t);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                }
+                if (t == 1) {
+                    base = best;
+                }
+                System.out.printf("%8d %10d %12.1f %10.2f\n", t, n, best, base / best);
+            }
+        } finally {
+            for (String f : files) {
+                join(Repository.CWD, f).delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static List<String> createTree(File dir, int n) {
+        dir.mkdir();
+        List<String> files = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = TREE_DIR + "/file" + i + ".txt";
+            writeContents(join(Repository.CWD, name), "line " + i + "\n", sha1("content " + i));
+            files.add(name);
+        }
+        return files;
+    }
+}
@@ -1,5 +1,23 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public interface ToBytesConvertible {
-    public byte[] toByteArray();
+    /**
+     * Write the versioned binary encoding of this object, see Codec
+     */
+    public void write(DataOutput out) throws IOException;
+
+    public default byte[] toByteArray() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            write(new DataOutputStream(result));
+        } catch (IOException e) {
+            throw new GitletException("failed to encode " + getClass().getSimpleName());
+        }
+        return result.toByteArray();
+    }
 }
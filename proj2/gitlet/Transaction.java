@@ -0,0 +1,461 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Makes the updates of one gitlet command to head, branches and index
+ * happen all together or not at all, and survive a crash once made.
+ * <p>
+ * While a transaction is open, saving one of those files only stages its
+ * new contents, which later reads by the command see. commit() then syncs
+ * the objects the command created in one batch, writes every staged file
+ * into the journal and syncs it, which is the point at which the command
+ * has happened, and finally moves each file into place by an atomic
+ * rename and marks the journal applied. A file that only grows, as the
+ * commit graph does, may instead stage bytes to write at an offset, which
+ * are applied in place.
+ * <p>
+ * The new contents are synced before the renames, and the directories
+ * after them, so the journal is marked applied only once the files it
+ * changed are durable. A journal that was synced but never marked applied
+ * is replayed by the next command to take the repository lock. Without an open transaction,
+ * as in the benchmarks, each file is written and synced on its own.
+ */
+public class Transaction {
+    // Static
+    public static final File JOURNAL = join(Repository.GITLET_DIR, "journal");
+
+    private static final int MAGIC = 0x474a4e4c; // "GJNL"
+    private static final int VERSION = 2;
+    private static final byte PENDING = 0;
+    private static final byte APPLIED = 1;
+    /* Most of the time of a sync is spent waiting on the disk, so one batch
+     * issues many at once, whatever the number of processors */
+    private static final int SYNC_THREADS = 16;
+
+    /**
+     * Open a transaction for the updates of one command
+     */
+    public static synchronized void begin() {
+        staged_ = new LinkedHashMap<>();
+        stagedTimes_ = new HashMap<>();
+        created_.clear();
+    }
+
+    /**
+     * Make every update staged since begin() durable and apply it
+     */
+    public static void commit() {
+        Map<File, Update> staged;
+        List<File> created;
+        synchronized (Transaction.class) {
+            if (staged_ == null) {
+                throw new GitletException("no transaction open");
+            }
+            staged = staged_;
+            created = new ArrayList<>(created_);
+            abort();
+        }
+        if (staged.isEmpty()) {
+            // Nothing refers to the objects created yet
+            return;
+        }
+
+        RepoLock.lockSaves();
+        try {
+            Set<File> batch = new LinkedHashSet<>(created);
+            if (!JOURNAL.exists()) {
+                // The journal itself is about to be created
+                batch.add(Repository.GITLET_DIR);
+            }
+            sync(batch);
+            writeJournal(staged);
+            apply(staged, false);
+        } finally {
+            RepoLock.unlockSaves();
+        }
+    }
+
+    /**
+     * Replay a journal that was synced but not applied, left by a command
+     * that was interrupted. Run under the repository lock.
+     */
+    public static void recover() {
+        if (!JOURNAL.exists()) {
+            return;
+        }
+        byte[] journal = readContents(JOURNAL);
+        Map<File, Update> entries = parse(journal);
+        // A journal that does not check out was never synced, so its
+        // transaction did not happen
+        if (entries != null && journal[journal.length - 1] == PENDING) {
+            apply(entries, true);
+        }
+    }
+
+    /**
+     * Discard the updates staged since begin() and close the transaction
+     */
+    public static synchronized void abort() {
+        staged_ = null;
+        stagedTimes_ = null;
+        created_.clear();
+    }
+
+    /**
+     * Replace the contents of a file, staging them if a transaction is open
+     *
+     * @param f       file under .gitlet
+     * @param content new contents
+     */
+    public static synchronized void write(File f, byte[] content) {
+        if (staged_ != null) {
+            staged_.put(f, new Update(WHOLE, content));
+            stagedTimes_.put(f, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+            return;
+        }
+        writeTemporary(f, content, true);
+        move(f);
+    }
+
+    /**
+     * Append bytes to a file in place, staging them if a transaction is
+     * open. Bytes staged for the same file are joined, so that each append
+     * may start where the previous one ended. The bytes are dropped if the
+     * file no longer ends at OFFSET when they are applied, as when another
+     * process appended first: only caches that may miss entries should be
+     * written this way.
+     *
+     * @param f      file under .gitlet
+     * @param offset length of the file the bytes were meant to follow
+     * @param bytes  bytes to append
+     */
+    public static synchronized void writeAt(File f, long offset, byte[] bytes) {
+        if (staged_ == null) {
+            writeInPlace(f, offset, bytes, true, false);
+            return;
+        }
+        Update u = staged_.get(f);
+        if (u == null) {
+            u = new Update(offset, bytes);
+        } else if (u.offset_ == WHOLE && offset == u.bytes_.length) {
+            u = new Update(WHOLE, splice(u.bytes_, offset, bytes));
+        } else if (u.offset_ != WHOLE && offset == u.offset_ + u.bytes_.length) {
+            u = new Update(u.offset_, splice(u.bytes_, u.bytes_.length, bytes));
+        } else {
+            throw new GitletException("appends to " + f.getName() + " do not follow each other");
+        }
+        staged_.put(f, u);
+        stagedTimes_.put(f, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the contents of F, as staged if they are. The contents last
+     * read are kept, and read again only once the file has been replaced.
+     */
+    public static synchronized byte[] read(File f) {
+        Update u = staged_ == null ? null : staged_.get(f);
+        if (u != null) {
+            return u.offset_ == WHOLE ? u.bytes_ : splice(readContents(f), u.offset_, u.bytes_);
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new GitletException("failed to read " + f.getName());
+        }
+        Snapshot last = read_.get(f);
+        if (last != null && last.matches(attrs)) {
+            return last.content_;
+        }
+        byte[] content = readContents(f);
+        read_.put(f, new Snapshot(attrs, content));
+        return content;
+    }
+
+    /**
+     * @return whether F exists or has contents staged
+     */
+    public static synchronized boolean exists(File f) {
+        return (staged_ != null && staged_.containsKey(f)) || f.exists();
+    }
+
+    /**
+     * @return when F was last written, in nanoseconds since the epoch
+     */
+    public static synchronized long lastModified(File f) {
+        if (stagedTimes_ != null && stagedTimes_.containsKey(f)) {
+            return stagedTimes_.get(f);
+        }
+        try {
+            return Files.getLastModifiedTime(f.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            throw new GitletException("failed to stat " + f.getName());
+        }
+    }
+
+    /**
+     * Record a file the open transaction must make durable before its
+     * journal, together with the directory that was changed to hold it.
+     * Does nothing without an open transaction.
+     *
+     * @param f file just moved into place
+     */
+    public static synchronized void created(File f) {
+        if (staged_ != null) {
+            created_.add(f);
+            created_.add(f.getParentFile());
+        }
+    }
+
+    /**
+     * Sync the files created so far, before deleting what they replace
+     */
+    public static void flush() {
+        List<File> created;
+        synchronized (Transaction.class) {
+            created = new ArrayList<>(created_);
+            created_.clear();
+        }
+        sync(created);
+    }
+
+    // Private members
+    /* Offset of an update that replaces the whole file */
+    private static final long WHOLE = -1;
+    /* updates by file, in the order staged, while a transaction is open */
+    private static Map<File, Update> staged_;
+    private static Map<File, Long> stagedTimes_;
+    /* files and directories to sync before the journal */
+    private static final Set<File> created_ = new LinkedHashSet<>();
+    /* contents of each file as last read, for a process running many commands */
+    private static final Map<File, Snapshot> read_ = new HashMap<>();
+
+    /* New contents of a file, or new bytes from an offset on */
+    private static class Update {
+        Update(long offset, byte[] bytes) {
+            offset_ = offset;
+            bytes_ = bytes;
+        }
+
+        final long offset_;
+        final byte[] bytes_;
+    }
+
+    /* Contents of a file with the attributes it had when they were read.
+     * Files are replaced by renames, so a new file key or time means new
+     * contents. */
+    private static class Snapshot {
+        Snapshot(BasicFileAttributes attrs, byte[] content) {
+            key_ = attrs.fileKey();
+            modified_ = attrs.lastModifiedTime();
+            size_ = attrs.size();
+            content_ = content;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return key_ != null && key_.equals(attrs.fileKey())
+                    && modified_.equals(attrs.lastModifiedTime()) && size_ == attrs.size();
+        }
+
+        private final Object key_;
+        private final FileTime modified_;
+        private final long size_;
+        private final byte[] content_;
+    }
+
+    /* The journal is the magic, version and number of entries, then per
+     * entry a path under .gitlet, the offset of the new bytes (-1 for the
+     * whole file) and the bytes, then the SHA-1 hash of all that and a
+     * final byte, set once applied */
+    private static void writeJournal(Map<File, Update> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            Path root = Repository.GITLET_DIR.toPath();
+            for (var e : entries.entrySet()) {
+                Codec.writeString(out, root.relativize(e.getKey().toPath()).toString());
+                out.writeLong(e.getValue().offset_);
+                Codec.writeBytes(out, e.getValue().bytes_);
+            }
+            out.write(hexToBytes(sha1((Object) bytes.toByteArray())));
+            out.writeByte(PENDING);
+        } catch (IOException e) {
+            throw new GitletException("failed to write journal");
+        }
+        try (FileChannel ch = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+            while (b.hasRemaining()) {
+                ch.write(b);
+            }
+            ch.force(true);
+        } catch (IOException e) {
+            throw new GitletException("failed to write journal");
+        }
+    }
+
+    /* entries of a journal, or null if it is torn or not a journal */
+    private static Map<File, Update> parse(byte[] journal) {
+        int end = journal.length - 1 - HASH_LENGTH;
+        if (end < 12) {
+            return null;
+        }
+        byte[] body = Arrays.copyOf(journal, end);
+        if (!sha1((Object) body).equals(bytesToHex(journal, end, HASH_LENGTH))) {
+            return null;
+        }
+        Map<File, Update> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                File f = join(Repository.GITLET_DIR, Codec.readString(in));
+                long offset = in.readLong();
+                entries.put(f, new Update(offset, Codec.readBytes(in)));
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return entries;
+    }
+
+    /* Move every entry into place and make that durable, then mark the
+     * journal applied. A replayed append may find its own bytes already
+     * partly written. */
+    private static void apply(Map<File, Update> entries, boolean replay) {
+        Set<File> written = new LinkedHashSet<>();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (var e : entries.entrySet()) {
+            Update u = e.getValue();
+            if (u.offset_ == WHOLE) {
+                writeTemporary(e.getKey(), u.bytes_, false);
+                written.add(temporary(e.getKey()));
+            } else {
+                writeInPlace(e.getKey(), u.offset_, u.bytes_, false, replay);
+                written.add(e.getKey());
+            }
+            dirs.add(e.getKey().getParentFile());
+        }
+        // A rename must not reach the disk before the contents it names
+        sync(written);
+        for (var e : entries.entrySet()) {
+            if (e.getValue().offset_ == WHOLE) {
+                move(e.getKey());
+            }
+        }
+        sync(dirs);
+        try (RandomAccessFile out = new RandomAccessFile(JOURNAL, "rw")) {
+            out.seek(out.length() - 1);
+            out.writeByte(APPLIED);
+        } catch (IOException e) {
+            throw new GitletException("failed to write journal");
+        }
+    }
+
+    /* Write the next contents of F beside it */
+    private static void writeTemporary(File f, byte[] content, boolean sync) {
+        try (FileChannel ch = FileChannel.open(temporary(f).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer b = ByteBuffer.wrap(content);
+            while (b.hasRemaining()) {
+                ch.write(b);
+            }
+            if (sync) {
+                ch.force(true);
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to write " + f.getName());
+        }
+    }
+
+    /* Write bytes at OFFSET of F if the file ends there, or, when replaying,
+     * ends no earlier. Bytes already in F are never cut off, since other
+     * processes may be reading them. */
+    private static void writeInPlace(File f, long offset, byte[] bytes, boolean sync,
+                                     boolean replay) {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            if (replay ? size < offset : size != offset) {
+                return;
+            }
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            while (b.hasRemaining()) {
+                ch.write(b, offset + b.position());
+            }
+            if (sync) {
+                ch.force(true);
+            }
+        } catch (IOException e) {
+            throw new GitletException("failed to write " + f.getName());
+        }
+    }
+
+    /* the first OFFSET bytes of CONTENT followed by BYTES */
+    private static byte[] splice(byte[] content, long offset, byte[] bytes) {
+        byte[] result = Arrays.copyOf(content, (int) offset + bytes.length);
+        System.arraycopy(bytes, 0, result, (int) offset, bytes.length);
+        return result;
+    }
+
+    private static void move(File f) {
+        try {
+            Files.move(temporary(f).toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GitletException("failed to replace " + f.getName());
+        }
+    }
+
+    private static File temporary(File f) {
+        return new File(f.getParentFile(), f.getName() + ".new");
+    }
+
+    /* Sync files and directories in parallel, so that the disk can flush
+     * them together */
+    private static void sync(Collection<File> files) {
+        Workers.map(new ArrayList<>(files), f -> {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                ch.force(true);
+            } catch (NoSuchFileException e) {
+                // Deleted since, as loose objects are by repack
+            } catch (IOException e) {
+                // Directories cannot be opened everywhere
+                if (!f.isDirectory()) {
+                    throw new GitletException("failed to sync " + f.getName());
+                }
+            }
+            return null;
+        }, Math.min(SYNC_THREADS, files.size()));
+    }
+}
@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Represents a gitlet tree object: the contents of one directory, mapping
+ * each name in it to a blob or to the tree of a subdirectory. Trees are
+ * content-addressed, so a directory that did not change between two
+ * commits is stored once and shared by both.
+ */
+public class Tree extends GitletObject<Tree.Data> {
+    // Constructors
+    private Tree(String sha1) {
+        super(sha1, Codec.TAG_TREE, Tree.Data::read);
+    }
+
+    private Tree() {
+        super(Codec.TAG_TREE);
+        data_ = new Tree.Data();
+    }
+
+    // Static
+    /**
+     * One name in a tree
+     */
+    public static class Entry {
+        private static final byte TYPE_BLOB = 'B';
+        private static final byte TYPE_TREE = 'T';
+
+        public static Entry blob(String sha1) {
+            return new Entry(false, sha1);
+        }
+
+        public static Entry tree(String sha1) {
+            return new Entry(true, sha1);
+        }
+
+        private Entry(boolean isTree, String sha1) {
+            isTree_ = isTree;
+            hash_ = sha1;
+        }
+
+        public boolean isTree() {
+            return isTree_;
+        }
+
+        public String getHash() {
+            return hash_;
+        }
+
+        private final boolean isTree_;
+        private final String hash_;
+    }
+
+    public static class Data implements ToBytesConvertible {
+        private static final int VERSION = 1;
+
+        /* maps name in this directory to its entry */
+        public TreeMap<String, Entry> entries_;
+
+        public Data() {
+            entries_ = new TreeMap<>();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            Codec.writeHeader(out, Codec.TAG_TREE, VERSION);
+            Codec.writeMap(out, entries_, (o, e) -> {
+                o.writeByte(e.isTree_ ? Entry.TYPE_TREE : Entry.TYPE_BLOB);
+                Codec.writeHash(o, e.hash_);
+            });
+        }
+
+        public static Data read(DataInput in) throws IOException {
+            Codec.readHeader(in, Codec.TAG_TREE, VERSION);
+            Data d = new Data();
+            d.entries_ = Codec.readMap(in, i -> {
+                byte type = i.readByte();
+                if (type != Entry.TYPE_BLOB && type != Entry.TYPE_TREE) {
+                    throw new IOException("bad tree entry type " + type);
+                }
+                return new Entry(type == Entry.TYPE_TREE, Codec.readHash(i));
+            });
+            return d;
+        }
+    }
+
+    public static Tree fromObjects(String sha1) {
+        return ObjectCache.get(sha1, Tree.class, Tree::new);
+    }
+
+    /**
+     * Create a tree, not yet saved
+     *
+     * @param entries maps names without '/' to entries
+     * @return Tree
+     */
+    public static Tree fromEntries(TreeMap<String, Entry> entries) {
+        Tree t = new Tree();
+        t.data_.entries_ = entries;
+        return t;
+    }
+
+    /**
+     * List every file under a stored tree
+     *
+     * @param sha1   SHA-1 hash of the tree
+     * @param prefix path of the tree's directory, empty or ending in '/'
+     * @param files  receives the path and blob hash of each file
+     * @param trees  receives the path prefix and hash of each tree, may be null
+     */
+    public static void flatten(String sha1, String prefix, Map<String, String> files,
+                               Map<String, String> trees) {
+        if (trees != null) {
+            trees.put(prefix, sha1);
+        }
+        for (var e : fromObjects(sha1).entrySet()) {
+            String path = prefix + e.getKey();
+            if (e.getValue().isTree()) {
+                flatten(e.getValue().getHash(), path + "/", files, trees);
+            } else {
+                files.put(path, e.getValue().getHash());
+            }
+        }
+    }
+
+    // Public methods
+    public Set<Map.Entry<String, Entry>> entrySet() {
+        return data_.entries_.entrySet();
+    }
+
+    public Entry get(String name) {
+        return data_.entries_.get(name);
+    }
+}
@@ -34,6 +34,11 @@ class Utils {
      */
     static final int UID_LENGTH = 40;
 
+    /**
+     * The length of a complete SHA-1 UID in bytes.
+     */
+    static final int HASH_LENGTH = UID_LENGTH / 2;
+
     /* SHA-1 HASH VALUES. */
 
     /**
@@ -62,6 +67,17 @@ class Utils {
         }
     }
 
+    /**
+     * Returns a fresh SHA-1 MessageDigest, for hashing data incrementally.
+     */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /**
      * Returns the SHA-1 hash of the concatenation of the strings in
      * VALS.
@@ -70,6 +86,40 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /**
+     * Returns the UID_LENGTH hex digits of HEX as HASH_LENGTH raw bytes.
+     */
+    static byte[] hexToBytes(String hex) {
+        if (hex.length() != UID_LENGTH) {
+            throw new IllegalArgumentException("not a SHA-1 hash: " + hex);
+        }
+        byte[] result = new byte[HASH_LENGTH];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("not a SHA-1 hash: " + hex);
+            }
+            result[i] = (byte) (hi << 4 | lo);
+        }
+        return result;
+    }
+
+    /**
+     * Returns LEN bytes of BYTES starting at OFFSET as lower-case hex digits.
+     */
+    static String bytesToHex(byte[] bytes, int offset, int len) {
+        byte[] hex = new byte[2 * len];
+        for (int i = 0; i < len; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[offset + i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[offset + i] & 0xf];
+        }
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final byte[] HEX_DIGITS =
+            "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
     /* FILE DELETION */
 
     /**
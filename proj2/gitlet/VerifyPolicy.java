@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * When objects read from the object store have their SHA-1 checked,
+ * chosen with the system property gitlet.verify:
+ * <p>
+ * always: on every read.
+ * <p>
+ * first (default): on the first read of each object by one gitlet command.
+ * <p>
+ * fsck: only by the fsck command.
+ */
+public enum VerifyPolicy {
+    ALWAYS, FIRST, FSCK;
+
+    // Static
+    public static final String PROPERTY = "gitlet.verify";
+
+    private static VerifyPolicy current_;
+    /* objects already verified by this process */
+    private static final Set<String> VERIFIED = new HashSet<>();
+
+    public static synchronized VerifyPolicy current() {
+        if (current_ == null) {
+            current_ = parse(System.getProperty(PROPERTY, "first"));
+        }
+        return current_;
+    }
+
+    /**
+     * @param sha1 SHA-1 hash of an object about to be read
+     * @return whether the read should check the object's hash
+     */
+    public static boolean shouldVerify(String sha1) {
+        switch (current()) {
+            case ALWAYS:
+                return true;
+            case FIRST:
+                synchronized (VERIFIED) {
+                    return !VERIFIED.contains(sha1);
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record that an object's hash was checked
+     */
+    public static void markVerified(String sha1) {
+        if (current() == FIRST) {
+            synchronized (VERIFIED) {
+                VERIFIED.add(sha1);
+            }
+        }
+    }
+
+    private static VerifyPolicy parse(String name) {
+        switch (name) {
+            case "always":
+                return ALWAYS;
+            case "first":
+                return FIRST;
+            case "fsck":
+                return FSCK;
+            default:
+                throw new GitletException("Unknown verify policy " + name);
+        }
+    }
+}
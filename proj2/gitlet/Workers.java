@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Runs per-file work, such as hashing the working tree, on a bounded
+ * ForkJoinPool. The number of threads is the system property
+ * gitlet.threads, by default the number of available processors:
+ * java -Dgitlet.threads=4 gitlet.Main status
+ */
+public class Workers {
+    // Static
+    public static final String THREADS_PROPERTY = "gitlet.threads";
+
+    public static int threads() {
+        int dflt = Runtime.getRuntime().availableProcessors();
+        try {
+            return Math.max(1, Integer.parseInt(System.getProperty(THREADS_PROPERTY,
+                    Integer.toString(dflt))));
+        } catch (NumberFormatException e) {
+            return dflt;
+        }
+    }
+
+    /**
+     * Apply a function to every item using threads() threads
+     *
+     * @return results in the order of ITEMS
+     */
+    public static <T, R> List<R> map(List<T> items, Function<T, R> fn) {
+        return map(items, fn, threads());
+    }
+
+    /**
+     * Apply a function to every item using at most THREADS threads. The
+     * first exception thrown by FN is rethrown.
+     *
+     * @return results in the order of ITEMS
+     */
+    public static <T, R> List<R> map(List<T> items, Function<T, R> fn, int threads) {
+        if (threads <= 1 || items.size() < 2) {
+            List<R> result = new ArrayList<>(items.size());
+            for (T item : items) {
+                result.add(fn.apply(item));
+            }
+            return result;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> items.parallelStream().map(fn)
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GitletException(cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitletException("interrupted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+}